@@ -0,0 +1,91 @@
+package dbms.benchmarks;
+
+import dbms.BPlusTree;
+import dbms.BufferPool;
+import dbms.Schema;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Inserts records one at a time into a B+tree over a BufferPool, a new tree per iteration. Sequential
+ * rowIds always land in the rightmost leaf; random ones (a multiplicative permutation of the int range, so
+ * never repeating) land anywhere and split leaves half full. 512 byte pages split about eight times as
+ * often as 4 KB ones. The row count and tree height reached are printed after each iteration.
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(value = 1, jvmArgsAppend = "-Dcobaltdb.log=WARN")
+public class BPlusTreeBenchmark {
+    @Param({"SEQUENTIAL", "RANDOM"})
+    public String order;
+
+    @Param({"4096", "512"})
+    public int pageSize;
+
+    private Path directory;
+    private Schema schema;
+    private byte[] record;
+    private boolean sequential;
+    private RandomAccessFile file;
+    private BufferPool pool;
+    private BPlusTree tree;
+    private int inserted;
+
+    @Setup(Level.Trial)
+    public void setup() throws IOException {
+        directory = Fixtures.createDirectory();
+        schema = Fixtures.schema();
+        record = schema.getCodec().encode(0, Fixtures.values(0), (byte) 0);
+        sequential = order.equals("SEQUENTIAL");
+    }
+
+    @Setup(Level.Iteration)
+    public void createTree() throws IOException {
+        Path path = directory.resolve("tree.tbl");
+        Files.deleteIfExists(path);
+        file = new RandomAccessFile(path.toFile(), "rw");
+        pool = new BufferPool(file, pageSize);
+        tree = new BPlusTree(schema, pool);
+        inserted = 0;
+    }
+
+    @Benchmark
+    public boolean insert() throws IOException {
+        int i = inserted++;
+        Fixtures.setRowId(record, sequential ? i : i * 0x9E3779B1);
+        return tree.insert(record);
+    }
+
+    @TearDown(Level.Iteration)
+    public void closeTree() throws IOException {
+        System.out.println();
+        System.out.println(inserted + " rows, tree height " + tree.getHeight());
+        pool.close();
+        file.close();
+    }
+
+    @TearDown(Level.Trial)
+    public void tearDown() throws IOException {
+        Fixtures.delete(directory);
+    }
+}
@@ -0,0 +1,105 @@
+package dbms.benchmarks;
+
+import dbms.Page;
+import dbms.StorageBackend;
+import dbms.Table;
+import org.openjdk.jmh.annotations.AuxCounters;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Imports a generated CSV file into a new, empty table with Table.processCsv, as .FILE does. The file is
+ * written once per trial; the table is recreated before every import. The primary score counts whole
+ * imports; the rows counter gives rows per second. The tree height of the last import is printed at the end.
+ *
+ * The larger sizes take long to generate and load: pick sizes with -p rows=10000,100000.
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+@Warmup(iterations = 1, time = 1)
+@Measurement(iterations = 3, time = 1)
+@Fork(value = 1, jvmArgsAppend = "-Dcobaltdb.log=WARN")
+public class CsvImportBenchmark {
+    @Param({"10000", "100000", "1000000", "10000000"})
+    public int rows;
+
+    // Threads parsing the CSV, see Table.setIngestThreads
+    @Param({"1", "4"})
+    public int threads;
+
+    private Path directory;
+    private Path csv;
+    private RandomAccessFile file;
+    private Table table;
+    private int height;
+
+    /**
+     * Rows imported, reported as a rate like the primary score.
+     */
+    @State(Scope.Thread)
+    @AuxCounters(AuxCounters.Type.OPERATIONS)
+    public static class Counters {
+        public long rows;
+
+        @Setup(Level.Iteration)
+        public void reset() {
+            rows = 0;
+        }
+    }
+
+    @Setup(Level.Trial)
+    public void writeCsv() throws IOException {
+        directory = Fixtures.createDirectory();
+        csv = directory.resolve("import.csv");
+        Fixtures.writeCsv(csv, rows);
+    }
+
+    @Setup(Level.Invocation)
+    public void createTable() throws IOException {
+        Path path = directory.resolve("import.tbl");
+        Files.deleteIfExists(path);
+        file = new RandomAccessFile(path.toFile(), "rw");
+        table = new Table(Fixtures.schema(), file, directory.resolve("import").toString(), Fixtures.COLUMNS,
+                StorageBackend.BUFFERED, Page.DEFAULT_PAGE_SIZE);
+        table.initialize();
+        table.setIngestThreads(threads);
+    }
+
+    @Benchmark
+    public void processCsv(Counters counters) {
+        table.processCsv(file, csv.toString());
+        counters.rows += rows;
+    }
+
+    @TearDown(Level.Invocation)
+    public void closeTable() throws IOException {
+        height = table.getHeight();
+        table.close();
+        file.close();
+    }
+
+    @TearDown(Level.Trial)
+    public void tearDown() throws IOException {
+        System.out.println();
+        System.out.println(rows + " rows, tree height " + height);
+        Fixtures.delete(directory);
+    }
+}
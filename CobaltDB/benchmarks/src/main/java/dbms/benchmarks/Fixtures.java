@@ -0,0 +1,80 @@
+package dbms.benchmarks;
+
+import dbms.Schema;
+
+import java.io.BufferedWriter;
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.Comparator;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.stream.Stream;
+
+/**
+ * The schema, rows and scratch files the benchmarks share.
+ */
+final class Fixtures {
+    static final String COLUMNS = "id:int,name:string,age:short,salary:double";
+
+    private Fixtures() {
+    }
+
+    static Schema schema() {
+        List<Schema.Metadata> fields = new ArrayList<>();
+        for (String column : COLUMNS.split(",")) {
+            String[] parts = column.split(":");
+            fields.add(new Schema.Metadata(parts[0], parts[1]));
+        }
+        return new Schema(fields);
+    }
+
+    static Map<String, Object> values(int row) {
+        Map<String, Object> values = new HashMap<>();
+        values.put("id", row);
+        values.put("name", "name" + row % 1000);
+        values.put("age", (short) (20 + row % 50));
+        values.put("salary", 1000.0 + row % 5000);
+        return values;
+    }
+
+    /**
+     * Writes a CSV file with a header line and the given number of rows of the schema.
+     */
+    static void writeCsv(Path csv, int rows) throws IOException {
+        try (BufferedWriter out = Files.newBufferedWriter(csv)) {
+            out.write("id,name,age,salary\n");
+            StringBuilder line = new StringBuilder();
+            for (int row = 0; row < rows; row++) {
+                line.setLength(0);
+                line.append(row).append(",name").append(row % 1000).append(',').append(20 + row % 50)
+                        .append(',').append(1000.0 + row % 5000).append('\n');
+                out.append(line);
+            }
+        }
+    }
+
+    /**
+     * Rewrites the rowId a serialized record starts with, so one record can be inserted under many rowIds.
+     */
+    static void setRowId(byte[] record, int rowId) {
+        record[0] = (byte) (rowId >>> 24);
+        record[1] = (byte) (rowId >>> 16);
+        record[2] = (byte) (rowId >>> 8);
+        record[3] = (byte) rowId;
+    }
+
+    static Path createDirectory() throws IOException {
+        return Files.createTempDirectory("cobaltdb-bench");
+    }
+
+    static void delete(Path directory) throws IOException {
+        try (Stream<Path> paths = Files.walk(directory)) {
+            for (Path path : (Iterable<Path>) paths.sorted(Comparator.reverseOrder())::iterator) {
+                Files.delete(path);
+            }
+        }
+    }
+}
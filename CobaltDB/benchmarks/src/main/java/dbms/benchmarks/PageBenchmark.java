@@ -0,0 +1,95 @@
+package dbms.benchmarks;
+
+import dbms.BufferPool;
+import dbms.Page;
+import dbms.Schema;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.file.Path;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Adds one record to a leaf page that is either empty or has room for just that record. On the nearly full
+ * page the record goes in the middle, so half the cell offsets shift. The page is reset before every
+ * invocation, which JMH times separately; at this scale expect some timer overhead in the score.
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(value = 1, jvmArgsAppend = "-Dcobaltdb.log=WARN")
+public class PageBenchmark {
+    private static final byte LEAF_PAGE_TYPE = 0x0d;
+    private static final int PAGE_NUMBER = 1;
+
+    @Param({"EMPTY", "NEARLY_FULL"})
+    public String fill;
+
+    @Param({"4096"})
+    public int pageSize;
+
+    private Path directory;
+    private RandomAccessFile file;
+    private BufferPool pool;
+    private Page page;
+    private byte[] record;
+    private int rowId;
+
+    @Setup(Level.Trial)
+    public void openPage() throws IOException {
+        directory = Fixtures.createDirectory();
+        file = new RandomAccessFile(directory.resolve("page.tbl").toFile(), "rw");
+        pool = new BufferPool(file, pageSize);
+        // Held for the whole run, which also keeps the page pinned in the pool
+        pool.latch(PAGE_NUMBER, true);
+        Schema schema = Fixtures.schema();
+        page = new Page(schema, pool, PAGE_NUMBER, LEAF_PAGE_TYPE);
+        page.initialize();
+        record = schema.getCodec().encode(0, Fixtures.values(0), (byte) 0);
+    }
+
+    @Setup(Level.Invocation)
+    public void resetPage() throws IOException {
+        page.clear();
+        int records = 0;
+        if (fill.equals("NEARLY_FULL")) {
+            // Even rowIds, until the page only has room for one more record (a cell and its 2-byte offset)
+            int cellSize = Page.leafCellSize(record.length);
+            while (page.hasSpace(2 * cellSize + 2)) {
+                Fixtures.setRowId(record, 2 * records);
+                page.addRecord(2 * records, record);
+                records++;
+            }
+        }
+        rowId = records | 1;
+        Fixtures.setRowId(record, rowId);
+    }
+
+    @Benchmark
+    public boolean addRecord() throws IOException {
+        return page.addRecord(rowId, record);
+    }
+
+    @TearDown(Level.Trial)
+    public void closePage() throws IOException {
+        pool.unlatch(PAGE_NUMBER, true);
+        pool.close();
+        file.close();
+        Fixtures.delete(directory);
+    }
+}
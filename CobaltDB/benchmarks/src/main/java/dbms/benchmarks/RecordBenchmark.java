@@ -0,0 +1,52 @@
+package dbms.benchmarks;
+
+import dbms.Record;
+import dbms.RecordCodec;
+import dbms.Schema;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.util.Arrays;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Serializes and deserializes one record of the benchmark schema.
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(value = 1, jvmArgsAppend = "-Dcobaltdb.log=WARN")
+public class RecordBenchmark {
+    private Schema schema;
+    private Record record;
+    private byte[] fields;
+
+    @Setup
+    public void setup() {
+        schema = Fixtures.schema();
+        record = new Record(42, schema, Fixtures.values(42));
+        byte[] serialized = record.serialize();
+        // deserialize takes the bytes after the rowId
+        fields = Arrays.copyOfRange(serialized, RecordCodec.ROW_ID_SIZE, serialized.length);
+    }
+
+    @Benchmark
+    public byte[] serialize() {
+        return record.serialize();
+    }
+
+    @Benchmark
+    public Record deserialize() {
+        return Record.deserialize(schema, fields, 42);
+    }
+}
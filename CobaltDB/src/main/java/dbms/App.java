@@ -1,20 +1,28 @@
 package dbms;
 
+import java.io.File;
 import java.util.*;
 import java.util.regex.Matcher;
 import java.util.regex.Pattern;
 
 public class App {
-    private static FileStorage currentStorage = null;
-    private static String currentTable = null;
-    private static int nextRowId = 1;
+    private static final Pattern CREATE_TABLE = Pattern.compile("TABLE\\s+(\\w+)\\s*\\((.+)\\)", Pattern.CASE_INSENSITIVE);
+    private static final Pattern CREATE_INDEX = Pattern.compile(
+            "INDEX\\s+ON\\s+(\\w+)\\s*\\(\\s*(\\w+)\\s*\\)(?:\\s+USING\\s+(BTREE|HASH))?", Pattern.CASE_INSENSITIVE);
+    private static final Pattern INSERT = Pattern.compile("INTO\\s+(\\w+)\\s+VALUES\\s*(\\(.*)", Pattern.CASE_INSENSITIVE);
+
+    private static final Catalog catalog = new Catalog(".");
 
     public static void main(String[] args) {
         System.out.println("Welcome to CobaltDB! Type your commands or 'exit' to quit.");
         System.out.println("Supported commands:");
         System.out.println("  CREATE TABLE <tablename> (<column>:<type>, ...)");
-        System.out.println("  INSERT INTO <tablename> VALUES (value1, value2, ...)");
-        System.out.println("  .FILE <filename>");
+        System.out.println("  CREATE INDEX ON <tablename> (<column>) [USING BTREE|HASH]");
+        System.out.println("  INSERT INTO <tablename> VALUES (value1, value2, ...)[, (value1, value2, ...) ...]");
+        System.out.println("  SELECT <column>, ... | * | COUNT(*) FROM <tablename> [WHERE <column> <op> <value> [AND ...]] [LIMIT n]");
+        System.out.println("  .FILE <filename>   (loads <filename> into the existing table of the same name)");
+        System.out.println("  .TABLES            (lists the tables of the catalog)");
+        System.out.println("  .TRACE             (prints recent insert/split events, run with -Dcobaltdb.trace=true)");
         System.out.println("  EXIT or QUIT");
 
         Scanner scanner = new Scanner(System.in);
@@ -50,6 +58,7 @@ public class App {
         switch (command) {
             case "EXIT":
             case "QUIT":
+                catalog.close();
                 System.out.println("Exiting CobaltDB. Goodbye!");
                 return false;
 
@@ -69,6 +78,10 @@ public class App {
                 }
                 break;
 
+            case "SELECT":
+                handleSelectCommand(input);
+                break;
+
             default:
                 System.out.println("Error: Unknown command '" + command + "'");
         }
@@ -85,9 +98,9 @@ public class App {
                 if (parts.length > 1) {
                     String filename = parts[1];
                     try {
-                        currentStorage = new FileStorage(filename, null);
-                        currentTable = filename.split("\\.")[0];
-                        currentStorage.startCSVProcess(filename);
+                        // The CSV file goes into the table of the same name
+                        String name = new File(filename).getName().split("\\.")[0];
+                        catalog.getTable(name).startCSVProcess(filename);
                         System.out.println("Successfully processed file: " + filename);
                     } catch (Exception e) {
                         System.out.println("Error processing file: " + e.getMessage());
@@ -97,6 +110,17 @@ public class App {
                 }
                 break;
 
+            case ".trace":
+                Log.dumpTrace(System.out);
+                break;
+
+            case ".tables":
+                for (Map.Entry<String, String> table : catalog.getTables().entrySet()) {
+                    System.out.println(table.getKey() + " (" + table.getValue() + ")" +
+                            (catalog.isOpen(table.getKey()) ? " [open]" : ""));
+                }
+                break;
+
             default:
                 System.out.println("Error: Unknown dot command '" + command + "'");
         }
@@ -104,16 +128,18 @@ public class App {
     }
 
     private static void handleCreateCommand(String args) {
-        Pattern pattern = Pattern.compile("TABLE\\s+(\\w+)\\s*\\((.+)\\)", Pattern.CASE_INSENSITIVE);
-        Matcher matcher = pattern.matcher(args);
+        if (args.toUpperCase().startsWith("INDEX")) {
+            handleCreateIndexCommand(args);
+            return;
+        }
+        Matcher matcher = CREATE_TABLE.matcher(args);
 
         if (matcher.find()) {
             String tableName = matcher.group(1);
             String columnsStr = matcher.group(2).replaceAll("\\s+", "");
 
             try {
-                currentStorage = new FileStorage(tableName + ".tbl", columnsStr);
-                currentTable = tableName;
+                catalog.createTable(tableName, columnsStr);
                 System.out.println("Table " + tableName + " created successfully");
             } catch (Exception e) {
                 System.out.println("Error creating table: " + e.getMessage());
@@ -124,65 +150,116 @@ public class App {
         }
     }
 
-    private static void handleInsertCommand(String args) {
-        Pattern pattern = Pattern.compile("INTO\\s+(\\w+)\\s+VALUES\\s*\\((.+)\\)", Pattern.CASE_INSENSITIVE);
-        Matcher matcher = pattern.matcher(args);
+    private static void handleCreateIndexCommand(String args) {
+        Matcher matcher = CREATE_INDEX.matcher(args);
 
         if (matcher.find()) {
             String tableName = matcher.group(1);
-            String valuesStr = matcher.group(2);
+            String column = matcher.group(2);
+            ColumnIndex.Kind kind = matcher.group(3) == null
+                    ? ColumnIndex.Kind.BTREE : ColumnIndex.Kind.valueOf(matcher.group(3).toUpperCase());
 
-            if (currentStorage == null || !tableName.equals(currentTable)) {
-                System.out.println("Error: Table " + tableName + " not found or not selected");
+            FileStorage storage;
+            try {
+                storage = catalog.getTable(tableName);
+            } catch (Exception e) {
+                System.out.println("Error: Table " + tableName + " not found: " + e.getMessage());
                 return;
             }
 
             try {
-                // Parse values
-                List<String> values = new ArrayList<>();
-                StringBuilder currentValue = new StringBuilder();
-                boolean inQuotes = false;
-
-                for (char c : valuesStr.toCharArray()) {
-                    if (c == ',' && !inQuotes) {
-                        values.add(currentValue.toString().trim());
-                        currentValue = new StringBuilder();
-                    } else if (c == '"' || c == '\'') {
-                        inQuotes = !inQuotes;
-                    } else {
-                        currentValue.append(c);
+                storage.createIndex(column, kind);
+                System.out.println("Index on " + tableName + "(" + column + ") created successfully");
+            } catch (Exception e) {
+                System.out.println("Error creating index: " + e.getMessage());
+            }
+        } else {
+            System.out.println("Error: Invalid CREATE INDEX syntax");
+            System.out.println("Correct syntax: CREATE INDEX ON tablename (column) [USING BTREE|HASH]");
+        }
+    }
+
+    private static void handleSelectCommand(String input) {
+        SelectStatement statement;
+        try {
+            statement = SelectStatement.parse(input);
+        } catch (IllegalArgumentException e) {
+            System.out.println("Error: " + e.getMessage());
+            System.out.println("Correct syntax: SELECT column, ... FROM tablename [WHERE column = value [AND ...]] [LIMIT n]");
+            return;
+        }
+        String tableName = statement.getTableName();
+
+        FileStorage storage;
+        try {
+            storage = catalog.getTable(tableName);
+        } catch (Exception e) {
+            System.out.println("Error: Table " + tableName + " not found: " + e.getMessage());
+            return;
+        }
+
+        try {
+            if (statement.isCount()) {
+                System.out.println("COUNT(*)");
+                System.out.println(storage.count(statement));
+                return;
+            }
+            BatchOperator operator = storage.select(statement);
+            System.out.println(String.join(" | ", operator.getColumns()));
+            long rows = 0;
+            StringBuilder line = new StringBuilder();
+            RowBatch batch;
+            while ((batch = operator.next()) != null) {
+                for (int i = 0; i < batch.size(); i++) {
+                    line.setLength(0);
+                    for (int c = 0; c < batch.getColumnCount(); c++) {
+                        if (c > 0) {
+                            line.append(" | ");
+                        }
+                        line.append(batch.getValue(c, i));
                     }
+                    System.out.println(line);
                 }
-                values.add(currentValue.toString().trim());
+                rows += batch.size();
+            }
+            System.out.println(rows + " row(s) selected");
+        } catch (Exception e) {
+            System.out.println("Error selecting from " + tableName + ": " + e.getMessage());
+        }
+    }
 
-                // Create record from values
-                Map<String, Object> recordValues = new HashMap<>();
-                Schema schema = currentStorage.getSchema();
-                List<Schema.Metadata> fields = schema.getFields();
+    private static void handleInsertCommand(String args) {
+        Matcher matcher = INSERT.matcher(args);
 
-                if (values.size() != fields.size()) {
-                    throw new IllegalArgumentException("Number of values doesn't match number of columns");
-                }
+        if (matcher.find()) {
+            String tableName = matcher.group(1);
+            String valuesStr = matcher.group(2);
+
+            FileStorage storage;
+            try {
+                storage = catalog.getTable(tableName);
+            } catch (Exception e) {
+                System.out.println("Error: Table " + tableName + " not found: " + e.getMessage());
+                return;
+            }
 
-                for (int i = 0; i < fields.size(); i++) {
-                    Schema.Metadata field = fields.get(i);
-                    String value = values.get(i);
-
-                    switch (field.getType()) {
-                        case "int":
-                            recordValues.put(field.getName(), Integer.parseInt(value));
-                            break;
-                        case "string":
-                            recordValues.put(field.getName(), value);
-                            break;
-                        // Add more types as needed
+            try {
+                List<List<String>> rows = parseValueRows(valuesStr);
+                int columnCount = storage.getSchema().getFields().size();
+
+                // All rows go in as one batch, committed once
+                PreparedInsert insert = storage.prepareInsert();
+                for (List<String> values : rows) {
+                    if (values.size() != columnCount) {
+                        throw new IllegalArgumentException("Number of values doesn't match number of columns");
+                    }
+                    for (int i = 0; i < columnCount; i++) {
+                        insert.setString(i + 1, values.get(i));
                     }
+                    insert.addBatch();
                 }
-
-                // Create and insert record
-                Record record = new Record(nextRowId++, schema, recordValues);
-                currentStorage.insertRecord(record);
-                System.out.println("Record inserted successfully");
+                int inserted = insert.executeBatch();
+                System.out.println(inserted == 1 ? "Record inserted successfully" : inserted + " records inserted successfully");
 
             } catch (Exception e) {
                 System.out.println("Error inserting values: " + e.getMessage());
@@ -190,7 +267,49 @@ public class App {
             }
         } else {
             System.out.println("Error: Invalid INSERT syntax");
-            System.out.println("Correct syntax: INSERT INTO tablename VALUES (value1, value2, ...)");
+            System.out.println("Correct syntax: INSERT INTO tablename VALUES (value1, value2, ...)[, (value1, value2, ...) ...]");
+        }
+    }
+
+    /**
+     * Splits "(a, b), (c, d)" into its rows of trimmed values. Values may be quoted with ' or " to hold
+     * commas or parentheses; the quotes are dropped. A trailing ';' is ignored.
+     */
+    private static List<List<String>> parseValueRows(String valuesStr) {
+        List<List<String>> rows = new ArrayList<>();
+        List<String> values = null;
+        StringBuilder currentValue = new StringBuilder();
+        boolean inQuotes = false;
+        boolean needComma = false;
+
+        for (char c : valuesStr.toCharArray()) {
+            if (values == null) {
+                // Between rows
+                if (c == '(' && !needComma) {
+                    values = new ArrayList<>();
+                } else if (c == ',' && needComma) {
+                    needComma = false;
+                } else if (!Character.isWhitespace(c) && c != ';') {
+                    throw new IllegalArgumentException("Unexpected '" + c + "' between rows of values");
+                }
+            } else if (c == '"' || c == '\'') {
+                inQuotes = !inQuotes;
+            } else if (c == ',' && !inQuotes) {
+                values.add(currentValue.toString().trim());
+                currentValue.setLength(0);
+            } else if (c == ')' && !inQuotes) {
+                values.add(currentValue.toString().trim());
+                currentValue.setLength(0);
+                rows.add(values);
+                values = null;
+                needComma = true;
+            } else {
+                currentValue.append(c);
+            }
+        }
+        if (values != null || !needComma) {
+            throw new IllegalArgumentException("Unterminated row of values");
         }
+        return rows;
     }
 }
\ No newline at end of file
@@ -1,282 +1,747 @@
 package dbms;
 
 import java.io.IOException;
-import java.io.RandomAccessFile;
+import java.util.ArrayList;
 import java.util.Arrays;
-
+import java.util.Iterator;
+import java.util.List;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.locks.ReentrantReadWriteLock;
+
+/**
+ * B+tree over the pages of a PageStore, safe for concurrent readers and writers.
+ *
+ * Every page access happens under the page's latch, taken with crabbing: a child is latched before
+ * the latch above it is released, and the root pointer has a latch of its own. Lookups and scans
+ * descend with shared latches. An insert first descends the same way and latches only the leaf
+ * exclusively; if the leaf has to split it starts over, latching every node exclusively and
+ * releasing the ancestors as soon as a node is reached that can take one more entry without splitting.
+ */
 public class BPlusTree {
-    private Node root;
-    private boolean isInitialized;
-    private int nextPageNumber;
-    private final RandomAccessFile file;
+    public static final double DEFAULT_FILL_FACTOR = 0.9;
+    public static final int FIRST_PAGE_NUMBER = TableHeader.PAGE_NUMBER + 1;
+    private static final byte LEAF_PAGE_TYPE = 0x0d;
+
+    // Guards rootPageNumber; held exclusively only while the root itself may change
+    private final ReentrantReadWriteLock rootLatch = new ReentrantReadWriteLock();
+    private volatile int rootPageNumber;
+    private final AtomicInteger nextPageNumber;
+    private final PageStore pageStore;
     private final int order;
     private final Schema schema;
 
-    public BPlusTree(Schema schema, RandomAccessFile file) {
-        this(schema, file, 4);  // Default order of 4
+    /**
+     * The pages an insert holds exclusive latches on. Interior pages visited on the way from the root
+     * to a leaf are pushed root first, and splits pop their parent from here instead of searching for it.
+     * Pages created by splits are held without being pushed.
+     */
+    private static class DescentPath {
+        private final PageStore pageStore;
+        private int[] pages = new int[8];
+        private int depth;
+        private int[] latched = new int[8];
+        private int latchedCount;
+
+        DescentPath(PageStore pageStore) {
+            this.pageStore = pageStore;
+        }
+
+        // pageNumber must already be latched exclusively
+        void push(int pageNumber) {
+            if (depth == pages.length) {
+                pages = Arrays.copyOf(pages, depth * 2);
+            }
+            pages[depth++] = pageNumber;
+            hold(pageNumber);
+        }
+
+        void hold(int pageNumber) {
+            if (latchedCount == latched.length) {
+                latched = Arrays.copyOf(latched, latchedCount * 2);
+            }
+            latched[latchedCount++] = pageNumber;
+        }
+
+        int pop() {
+            return pages[--depth];
+        }
+
+        boolean isEmpty() {
+            return depth == 0;
+        }
+
+        // Releases every page but the last one pushed, which cannot split and so ends any split below it
+        void releaseAbove() {
+            int last = pages[depth - 1];
+            for (int i = 0; i < latchedCount - 1; i++) {
+                pageStore.unlatch(latched[i], true);
+            }
+            pages[0] = last;
+            depth = 1;
+            latched[0] = last;
+            latchedCount = 1;
+        }
+
+        void releaseAll() {
+            for (int i = 0; i < latchedCount; i++) {
+                pageStore.unlatch(latched[i], true);
+            }
+            latchedCount = 0;
+            depth = 0;
+        }
+    }
+
+    public BPlusTree(Schema schema, PageStore pageStore) {
+        // Interior nodes are as wide as their pages allow
+        this(schema, pageStore, Page.maxInteriorKeys(pageStore.getPageSize()) + 1);
     }
 
-    public BPlusTree(Schema schema, RandomAccessFile file, int order) {
-        System.out.println("BPlusTree constructor: Received schema: " + schema);
-        this.file = file;
+    public BPlusTree(Schema schema, PageStore pageStore, int order) {
+        this.pageStore = pageStore;
         this.schema = schema;
         this.order = order;
-        this.isInitialized = false;
-        this.nextPageNumber = 0;
+        this.rootPageNumber = -1;
+        this.nextPageNumber = new AtomicInteger(FIRST_PAGE_NUMBER);
 
         if (this.schema == null) {
             throw new IllegalArgumentException("Schema cannot be null in BPlusTree constructor");
         }
+        if (order < 3 || order > Page.maxInteriorKeys(pageStore.getPageSize()) + 1) {
+            throw new IllegalArgumentException("Order " + order + " does not fit a " +
+                    pageStore.getPageSize() + " byte page");
+        }
     }
 
-    private void initialize() throws IOException {
-        if (!isInitialized) {
-            System.out.println("BPlusTree.initialize: Creating LeafNode with schema: " + schema);
-            root = new LeafNode(schema, assignPageNumber(), file);
-            isInitialized = true;
+    // Caller holds the root latch exclusively
+    private void createRootLeaf() throws IOException {
+        int pageNumber = assignPageNumber();
+        pageStore.latch(pageNumber, true);
+        try {
+            new LeafNode(schema, pageNumber, pageStore);
+        } finally {
+            pageStore.unlatch(pageNumber, true);
         }
+        rootPageNumber = pageNumber;
+    }
+
+    /**
+     * Attaches the tree to pages that already exist on disk.
+     * Nothing is read here; nodes are loaded from their pages as the tree is traversed.
+     *
+     * @param rootPageNumber the root page, or -1 for an empty tree
+     */
+    public void open(int rootPageNumber, int nextPageNumber) {
+        this.rootPageNumber = rootPageNumber;
+        this.nextPageNumber.set(nextPageNumber);
+    }
+
+    public int getRootPageNumber() {
+        return rootPageNumber;
     }
 
-    private LeafNode findTargetPage(int rowId) {
-        Node currentNode = root;
-        while (!currentNode.isLeaf()) {
-            InternalNode internal = (InternalNode) currentNode;
-            int position = binarySearch(internal.getKeys(), rowId, internal.getNumKeys());
-            int childIndex = position < internal.getNumKeys() ? position : internal.getNumKeys();
-            currentNode = internal.getChildren()[childIndex];
+    public int getNextPageNumber() {
+        return nextPageNumber.get();
+    }
+
+    public int getOrder() {
+        return order;
+    }
+
+    /**
+     * @return the number of levels, counting the leaf level; 0 for an empty tree
+     */
+    public int getHeight() throws IOException {
+        rootLatch.readLock().lock();
+        try {
+            if (isEmpty()) {
+                return 0;
+            }
+            int height = 1;
+            int page = rootPageNumber;
+            pageStore.latch(page, false);
+            try {
+                while (Page.readPageType(pageStore, page) != LEAF_PAGE_TYPE) {
+                    int child = new InternalNode(schema, page, pageStore, false).getChild(0);
+                    pageStore.latch(child, false);
+                    pageStore.unlatch(page, false);
+                    page = child;
+                    height++;
+                }
+            } finally {
+                pageStore.unlatch(page, false);
+            }
+            return height;
+        } finally {
+            rootLatch.readLock().unlock();
         }
-        return (LeafNode) currentNode;
+    }
+
+    /**
+     * Picks rowIds that split the table into about the given number of ranges holding similar numbers of
+     * leaves, for scanning the ranges in parallel. The keys are separators read from the interior levels,
+     * from the root down only as far as needed to find enough of them, so no leaf is read.
+     *
+     * @return up to partitions - 1 ascending keys; range i runs from key i - 1 (Integer.MIN_VALUE for the
+     * first) to just below key i (Integer.MAX_VALUE for the last)
+     */
+    public int[] splitKeys(int partitions) throws IOException {
+        if (partitions < 1) {
+            throw new IllegalArgumentException("Partitions must be positive: " + partitions);
+        }
+        List<Integer> keys = new ArrayList<>();
+        rootLatch.readLock().lock();
+        try {
+            if (isEmpty() || partitions == 1) {
+                return new int[0];
+            }
+            List<Integer> level = new ArrayList<>();
+            level.add(rootPageNumber);
+            while (true) {
+                List<Integer> children = new ArrayList<>();
+                boolean leaves = false;
+                for (int page : level) {
+                    pageStore.latch(page, false);
+                    try {
+                        if (Page.readPageType(pageStore, page) == LEAF_PAGE_TYPE) {
+                            leaves = true;
+                            break;
+                        }
+                        InternalNode node = new InternalNode(schema, page, pageStore, false);
+                        int count = node.getNumKeys();
+                        for (int i = 0; i < count; i++) {
+                            keys.add(node.getKey(i));
+                            children.add(node.getChild(i));
+                        }
+                        children.add(node.getChild(count));
+                    } finally {
+                        pageStore.unlatch(page, false);
+                    }
+                }
+                if (leaves || keys.size() >= partitions - 1) {
+                    break;
+                }
+                level = children;
+            }
+        } finally {
+            rootLatch.readLock().unlock();
+        }
+
+        int[] sorted = keys.stream().mapToInt(Integer::intValue).sorted().distinct().toArray();
+        if (sorted.length <= partitions - 1) {
+            return sorted;
+        }
+        int[] chosen = new int[partitions - 1];
+        for (int i = 0; i < chosen.length; i++) {
+            chosen[i] = sorted[(int) ((long) (i + 1) * sorted.length / partitions)];
+        }
+        return Arrays.stream(chosen).distinct().toArray();
+    }
+
+    // With a path the new page is latched exclusively and held by it; without one the caller has the tree
+    // to itself
+    private LeafNode newLeafNode(DescentPath path) throws IOException {
+        int pageNumber = assignPageNumber();
+        if (path != null) {
+            pageStore.latch(pageNumber, true);
+            path.hold(pageNumber);
+        }
+        return new LeafNode(schema, pageNumber, pageStore);
+    }
+
+    private InternalNode newInternalNode(DescentPath path) throws IOException {
+        int pageNumber = assignPageNumber();
+        if (path != null) {
+            pageStore.latch(pageNumber, true);
+            path.hold(pageNumber);
+        }
+        return new InternalNode(schema, pageNumber, pageStore, true);
+    }
+
+    /**
+     * Crabs down with shared latches to the leaf whose range holds rowId.
+     * The latch above a node (the root latch or the parent's) is released only once the node is latched,
+     * and a leaf wanted exclusively is relatched while its parent is still held, so no split can move
+     * rowId out of it in between.
+     *
+     * @return the leaf page, latched shared or exclusively; -1 for an empty tree
+     */
+    private int latchLeaf(int rowId, boolean exclusive) throws IOException {
+        return latchLeaf(rowId, exclusive, null);
+    }
+
+    /**
+     * Like latchLeaf(rowId, exclusive), also setting upperBound[0] to the separator key above the leaf, the
+     * first rowId it cannot hold (Integer.MAX_VALUE for the rightmost leaf). The bound holds while the leaf
+     * stays latched, as only a split of the leaf itself can lower it.
+     */
+    private int latchLeaf(int rowId, boolean exclusive, int[] upperBound) throws IOException {
+        if (upperBound != null) {
+            upperBound[0] = Integer.MAX_VALUE;
+        }
+        rootLatch.readLock().lock();
+        boolean rootHeld = true;
+        int parent = -1;
+        int page = -1;
+        boolean pageExclusive = false;
+        boolean found = false;
+        try {
+            if (isEmpty()) {
+                return -1;
+            }
+            page = rootPageNumber;
+            pageStore.latch(page, false);
+            while (Page.readPageType(pageStore, page) != LEAF_PAGE_TYPE) {
+                InternalNode node = new InternalNode(schema, page, pageStore, false);
+                int index = node.findChildIndex(rowId);
+                // Each level's node lies within the range of the one above, so the deepest key is the tightest
+                if (upperBound != null && index < node.getNumKeys()) {
+                    upperBound[0] = node.getKey(index);
+                }
+                int child = node.getChild(index);
+                pageStore.latch(child, false);
+                if (parent >= 0) {
+                    pageStore.unlatch(parent, false);
+                } else {
+                    rootLatch.readLock().unlock();
+                    rootHeld = false;
+                }
+                parent = page;
+                page = child;
+            }
+            if (exclusive) {
+                int leaf = page;
+                page = -1;
+                pageStore.unlatch(leaf, false);
+                pageStore.latch(leaf, true);
+                page = leaf;
+                pageExclusive = true;
+            }
+            found = true;
+            return page;
+        } finally {
+            if (!found && page >= 0) {
+                pageStore.unlatch(page, pageExclusive);
+            }
+            if (parent >= 0) {
+                pageStore.unlatch(parent, false);
+            }
+            if (rootHeld) {
+                rootLatch.readLock().unlock();
+            }
+        }
+    }
+
+    /**
+     * Finds a record by rowId, reading one page per tree level.
+     *
+     * @return the record, or null if no record has that rowId
+     */
+    public Record search(int rowId) throws IOException {
+        return search(rowId, Projection.all(schema));
+    }
+
+    /**
+     * Finds a record by rowId, decoding only the projected fields.
+     *
+     * @return the record, or null if no record has that rowId
+     */
+    public Record search(int rowId, Projection projection) throws IOException {
+        int leaf = latchLeaf(rowId, false);
+        if (leaf < 0) {
+            return null;
+        }
+        try {
+            return new Page(schema, pageStore, leaf, LEAF_PAGE_TYPE).getRecord(rowId, projection);
+        } finally {
+            pageStore.unlatch(leaf, false);
+        }
+    }
+
+    /**
+     * Opens a cursor over the records with fromRowId <= rowId <= toRowId, in rowId order.
+     * Only the first leaf is located through the tree; the rest are reached through right sibling links.
+     */
+    public RecordCursor scan(int fromRowId, int toRowId) throws IOException {
+        return scan(fromRowId, toRowId, Projection.all(schema));
+    }
+
+    /**
+     * Like scan(fromRowId, toRowId), with records holding only the projected fields.
+     */
+    public RecordCursor scan(int fromRowId, int toRowId, Projection projection) throws IOException {
+        if (fromRowId > toRowId) {
+            return RecordCursor.empty(schema, pageStore);
+        }
+        int leaf = latchLeaf(fromRowId, false);
+        if (leaf < 0) {
+            return RecordCursor.empty(schema, pageStore);
+        }
+        // Splits only move records to the right, so the cursor can relatch the leaf later
+        pageStore.unlatch(leaf, false);
+        return new RecordCursor(schema, pageStore, leaf, fromRowId, toRowId, projection);
     }
 
     public boolean insert(Record record) throws IOException {
-        System.out.println("Attempting to insert record with rowId: " + record.getRowId());
-        initialize();
+        return insert(record.serialize());
+    }
 
-        LeafNode targetPage = findTargetPage(record.getRowId());
-        System.out.println("Found target page: " + targetPage.getPageNumber());
+    /**
+     * Inserts a record already serialized by its schema's codec, which puts the rowId first.
+     */
+    public boolean insert(byte[] recordData) throws IOException {
+        int rowId = RecordCodec.rowIdOf(recordData);
+        checkRecordLength(rowId, recordData);
+        int cellSize = Page.leafCellSize(recordData.length);
+
+        int leaf = latchLeaf(rowId, true);
+        if (leaf >= 0) {
+            try {
+                Page page = new Page(schema, pageStore, leaf, LEAF_PAGE_TYPE);
+                if (page.hasSpace(cellSize)) {
+                    Log.trace(Log.Event.INSERT, rowId, leaf);
+                    if (Log.isDebugEnabled()) {
+                        Log.debug("Inserting record " + rowId + " (" + recordData.length +
+                                " bytes) into leaf " + leaf);
+                    }
+                    return page.addRecord(rowId, recordData);
+                }
+            } finally {
+                pageStore.unlatch(leaf, true);
+            }
+        }
 
-        byte[] recordData = record.serialize();
-        System.out.println("Record serialized, size: " + recordData.length);
-        System.out.println("Serialized Record: " + Arrays.toString(recordData));
+        // The leaf is full (or the tree is empty): start over holding every node that may change
+        insertWithSplits(rowId, recordData, cellSize);
+        return true;
+    }
 
-        if (targetPage.getPage().hasSpace(recordData.length)) {
-            boolean success = targetPage.getPage().addRecord(record);
-            System.out.println("Insert " + (success ? "successful" : "failed"));
-            return success;
-        } else {
-            System.out.println("Page full, need to split");
-            splitLeafNode(targetPage, record);
-            return true;
+    /**
+     * Inserts records serialized by the schema's codec, sorted by increasing rowId. Each descent latches a
+     * leaf once and adds every following record that belongs to it and fits, so a batch of adjacent rowIds
+     * costs one descent and one latch per leaf instead of one per record; a record that does not fit goes
+     * through insertWithSplits alone.
+     *
+     * @return the number of records inserted
+     */
+    public int insertSorted(List<byte[]> sortedRecords) throws IOException {
+        for (byte[] recordData : sortedRecords) {
+            checkRecordLength(RecordCodec.rowIdOf(recordData), recordData);
+        }
+        int[] upperBound = new int[1];
+        int i = 0;
+        while (i < sortedRecords.size()) {
+            byte[] recordData = sortedRecords.get(i);
+            int rowId = RecordCodec.rowIdOf(recordData);
+            int leaf = latchLeaf(rowId, true, upperBound);
+            boolean full = true;
+            if (leaf >= 0) {
+                try {
+                    Page page = new Page(schema, pageStore, leaf, LEAF_PAGE_TYPE);
+                    while (i < sortedRecords.size()) {
+                        recordData = sortedRecords.get(i);
+                        rowId = RecordCodec.rowIdOf(recordData);
+                        if (rowId >= upperBound[0]) {
+                            full = false;
+                            break;
+                        }
+                        if (!page.addRecord(rowId, recordData)) {
+                            break;
+                        }
+                        Log.trace(Log.Event.INSERT, rowId, leaf);
+                        i++;
+                    }
+                    if (i == sortedRecords.size()) {
+                        full = false;
+                    }
+                } finally {
+                    pageStore.unlatch(leaf, true);
+                }
+            }
+            if (full) {
+                insertWithSplits(rowId, recordData, Page.leafCellSize(recordData.length));
+                i++;
+            }
         }
+        return i;
     }
 
-    private void splitLeafNode(LeafNode leaf, Record newRecord) throws IOException {
-        // Create new leaf node
-        LeafNode newLeaf = new LeafNode(schema, assignPageNumber(), file);
-        System.out.println("Created new leaf node with page number: " + newLeaf.getPageNumber());
+    // A leaf split needs both halves to fit a page, which records longer than half of one could prevent
+    private void checkRecordLength(int rowId, byte[] recordData) {
+        int maxLength = Page.maxRecordLength(pageStore.getPageSize());
+        if (recordData.length > maxLength) {
+            throw new IllegalArgumentException("Record " + rowId + " is " + recordData.length +
+                    " bytes, more than the " + maxLength + " a " + pageStore.getPageSize() + " byte page takes");
+        }
+    }
 
-        // Get all records including new one
-        Record[] currentRecords = leaf.getPage().getAllRecords();
-        Record[] allRecords = new Record[currentRecords.length + 1];
-        System.arraycopy(currentRecords, 0, allRecords, 0, currentRecords.length);
-        allRecords[currentRecords.length] = newRecord;
+    private void insertWithSplits(int rowId, byte[] recordData, int cellSize) throws IOException {
+        rootLatch.writeLock().lock();
+        boolean rootHeld = true;
+        DescentPath path = new DescentPath(pageStore);
+        try {
+            if (isEmpty()) {
+                createRootLeaf();
+            }
+            int page = rootPageNumber;
+            pageStore.latch(page, true);
+            path.push(page);
+            while (true) {
+                boolean isLeaf = Page.readPageType(pageStore, page) == LEAF_PAGE_TYPE;
+                boolean safe = isLeaf
+                        ? new Page(schema, pageStore, page, LEAF_PAGE_TYPE).hasSpace(cellSize)
+                        : new InternalNode(schema, page, pageStore, false).getNumKeys() < order - 1;
+                if (safe) {
+                    path.releaseAbove();
+                    if (rootHeld) {
+                        rootLatch.writeLock().unlock();
+                        rootHeld = false;
+                    }
+                }
+                if (isLeaf) {
+                    break;
+                }
+                InternalNode node = new InternalNode(schema, page, pageStore, false);
+                page = node.getChild(node.findChildIndex(rowId));
+                pageStore.latch(page, true);
+                path.push(page);
+            }
+
+            LeafNode leaf = new LeafNode(schema, path.pop(), pageStore, false);
+            Log.trace(Log.Event.INSERT, rowId, leaf.getPageNumber());
+            // Another insert may have split the leaf since the first attempt
+            if (!leaf.getPage().addRecord(rowId, recordData)) {
+                splitLeafNode(leaf, rowId, recordData, path);
+            }
+        } finally {
+            path.releaseAll();
+            if (rootHeld) {
+                rootLatch.writeLock().unlock();
+            }
+        }
+    }
 
-        // Sort records by rowId
-        Arrays.sort(allRecords, (r1, r2) -> Integer.compare(r1.getRowId(), r2.getRowId()));
-        int splitPoint = allRecords.length / 2;
+    public boolean isEmpty() {
+        return rootPageNumber < 0;
+    }
+
+    /**
+     * Builds the tree bottom-up from records sorted by strictly increasing rowId.
+     * Leaves and interior nodes are filled in order up to the fill factor, leaves are chained
+     * through their right sibling, and each interior level keeps only its rightmost open node,
+     * so the input is streamed in a single pass without any splits.
+     * Other threads are kept out of the tree until the load is done. If the input fails part way, the tree
+     * is left empty, as it was, and the pages written so far are reused by later inserts.
+     *
+     * @return the number of records loaded
+     */
+    public int bulkLoad(Iterator<Record> sortedRecords, double fillFactor) throws IOException {
+        return bulkLoadSerialized(new Iterator<byte[]>() {
+            @Override
+            public boolean hasNext() {
+                return sortedRecords.hasNext();
+            }
+
+            @Override
+            public byte[] next() {
+                return sortedRecords.next().serialize();
+            }
+        }, fillFactor);
+    }
+
+    /**
+     * Like bulkLoad, from records already serialized by the schema's codec.
+     */
+    public int bulkLoadSerialized(Iterator<byte[]> sortedRecords, double fillFactor) throws IOException {
+        if (fillFactor <= 0 || fillFactor > 1) {
+            throw new IllegalArgumentException("Fill factor must be in (0, 1]: " + fillFactor);
+        }
+        rootLatch.writeLock().lock();
+        try {
+            if (!isEmpty()) {
+                throw new IllegalStateException("Bulk load requires an empty tree");
+            }
+            if (!sortedRecords.hasNext()) {
+                return 0;
+            }
+            int firstPage = nextPageNumber.get();
+            try {
+                return bulkLoadLocked(sortedRecords, fillFactor);
+            } catch (IOException | RuntimeException e) {
+                nextPageNumber.set(firstPage);
+                throw e;
+            }
+        } finally {
+            rootLatch.writeLock().unlock();
+        }
+    }
+
+    // The root is only published once every record is in, so a failed load leaves the tree empty
+    private int bulkLoadLocked(Iterator<byte[]> sortedRecords, double fillFactor) throws IOException {
+        LeafNode leaf = newLeafNode(null);
+        int root = leaf.getPageNumber();
+        List<InternalNode> openNodes = new ArrayList<>();  // Rightmost node of each interior level
+        int maxInteriorKeys = Math.max(1, (int) ((order - 1) * fillFactor));
+        int count = 0;
+        int lastRowId = Integer.MIN_VALUE;
+
+        while (sortedRecords.hasNext()) {
+            byte[] recordData = sortedRecords.next();
+            int rowId = RecordCodec.rowIdOf(recordData);
+            if (count > 0 && rowId <= lastRowId) {
+                throw new IllegalArgumentException("Bulk load input is not sorted: rowId " + rowId +
+                        " follows " + lastRowId);
+            }
+
+            checkRecordLength(rowId, recordData);
+            int cellSize = Page.leafCellSize(recordData.length);
+            if (count > 0 && !leaf.getPage().hasSpace(cellSize, fillFactor)) {
+                LeafNode newLeaf = newLeafNode(null);
+                leaf.getPage().setRightSibling(newLeaf.getPageNumber());
+                appendToLevel(openNodes, 0, maxInteriorKeys, rowId, leaf, newLeaf);
+                leaf = newLeaf;
+            }
+
+            if (!leaf.getPage().addRecord(rowId, recordData)) {
+                throw new IOException("Record " + rowId + " does not fit in an empty page");
+            }
+            lastRowId = rowId;
+            count++;
+        }
 
-        // Clear old leaf and redistribute records
-        leaf.getPage().clear();
-        newLeaf.getPage().clear();
+        if (!openNodes.isEmpty()) {
+            root = openNodes.get(openNodes.size() - 1).getPageNumber();
+        }
+        rootPageNumber = root;
+        Log.info("Bulk loaded " + count + " records, tree height " + (openNodes.size() + 1));
+        return count;
+    }
 
-        // Fill first half in ascending order (for bottom-up)
-        for (int i = 0; i < splitPoint; i++) {
-            leaf.getPage().addRecord(allRecords[i]);
+    // Adds rightChild (separated by key) to the open node of the given level, replacing that
+    // node with a new sibling when it already holds maxKeys keys. leftChild is the child to
+    // its left, used when the level has no node yet.
+    private void appendToLevel(List<InternalNode> openNodes, int level, int maxKeys, int key,
+                               Node leftChild, Node rightChild) throws IOException {
+        if (level == openNodes.size()) {
+            InternalNode node = newInternalNode(null);
+            node.setOnlyChild(leftChild.getPageNumber());
+            node.append(key, rightChild.getPageNumber());
+            openNodes.add(node);
+            return;
         }
 
-// Fill second half in ascending order (for bottom-up)
-        for (int i = splitPoint; i < allRecords.length; i++) {
-            newLeaf.getPage().addRecord(allRecords[i]);
+        InternalNode node = openNodes.get(level);
+        if (node.getNumKeys() < maxKeys) {
+            node.append(key, rightChild.getPageNumber());
+            return;
         }
 
+        // Node is full: it is final now, and the key moves up to separate it from its new sibling
+        InternalNode sibling = newInternalNode(null);
+        sibling.setOnlyChild(rightChild.getPageNumber());
+        openNodes.set(level, sibling);
+        appendToLevel(openNodes, level + 1, maxKeys, key, node, sibling);
+    }
+
+    private void splitLeafNode(LeafNode leaf, int rowId, byte[] recordData, DescentPath path) throws IOException {
+        // Create new leaf node
+        LeafNode newLeaf = newLeafNode(path);
+
+        // Move the upper half of the records, new one included, to the new leaf
+        int splitKey = leaf.getPage().splitInto(newLeaf.getPage(), rowId, recordData);
+
         // Update leaf chain pointers
         Integer oldRightSibling = leaf.getPage().getRightSibling();
         newLeaf.getPage().setRightSibling(oldRightSibling != null ? oldRightSibling : -1);
         leaf.getPage().setRightSibling(newLeaf.getPageNumber());
-        System.out.println("Split complete - Left node: " + leaf.getPageNumber() +
-                " now points to: " + newLeaf.getPageNumber() +
-                " which points to: " + (oldRightSibling != null ? oldRightSibling : "none"));
+        Log.trace(Log.Event.LEAF_SPLIT, leaf.getPageNumber(), newLeaf.getPageNumber());
+        if (Log.isDebugEnabled()) {
+            Log.debug("Split leaf " + leaf.getPageNumber() + " into " + newLeaf.getPageNumber() +
+                    ", which points to " + (oldRightSibling != null ? oldRightSibling : "none"));
+        }
 
         // Insert split key into parent
-        int splitKey = allRecords[splitPoint].getRowId();
-        insertIntoParent(leaf, splitKey, newLeaf);
+        insertIntoParent(leaf, splitKey, newLeaf, path);
     }
 
-    private void insertIntoParent(Node leftNode, int key, Node rightNode) throws IOException {
-        if (root == leftNode) {
-            InternalNode newRoot = new InternalNode(assignPageNumber(), file);
-
-            // Create a new Page for the interior node with correct constructor order
-            Page interiorPage = new Page(schema, file, newRoot.getPageNumber(), (byte)0x05);
-            interiorPage.initialize();  // This sets up the page header
-
-            // Write the interior node data
-            interiorPage.writeInteriorCell(leftNode.getPageNumber(), key);
-            interiorPage.setRightChild(rightNode.getPageNumber());
-
-            // Update in-memory structure
-            newRoot.getKeys()[0] = key;
-            newRoot.getChildren()[0] = leftNode;
-            newRoot.getChildren()[1] = rightNode;
-            newRoot.setNumKeys(1);
-            root = newRoot;
-
-            // Update parent pointers
-            updateNodeParent(leftNode, newRoot.getPageNumber());
-            updateNodeParent(rightNode, newRoot.getPageNumber());
-
-            System.out.println("Created new root " + newRoot.getPageNumber() +
-                    " with children " + leftNode.getPageNumber() +
-                    " and " + rightNode.getPageNumber());
+    // path holds the ancestors of leftNode that have not been visited by the split yet. It only runs
+    // out when the root itself split, in which case the root latch is still held exclusively.
+    private void insertIntoParent(Node leftNode, int key, Node rightNode, DescentPath path) throws IOException {
+        if (path.isEmpty()) {
+            InternalNode newRoot = newInternalNode(path);
+            newRoot.setOnlyChild(leftNode.getPageNumber());
+            newRoot.append(key, rightNode.getPageNumber());
+            rootPageNumber = newRoot.getPageNumber();
+
+            Log.trace(Log.Event.NEW_ROOT, newRoot.getPageNumber(), leftNode.getPageNumber());
+            if (Log.isDebugEnabled()) {
+                Log.debug("Created new root " + newRoot.getPageNumber() + " with children " +
+                        leftNode.getPageNumber() + " and " + rightNode.getPageNumber());
+            }
         } else {
-            Node parent = findParent(leftNode);
-            System.out.println("Found parent " + parent.getPageNumber() + " for node " + leftNode.getPageNumber());
-
-            InternalNode parentNode = (InternalNode) parent;
+            InternalNode parentNode = new InternalNode(schema, path.pop(), pageStore, false);
             if (parentNode.getNumKeys() < order - 1) {
                 insertIntoInternal(parentNode, key, rightNode);
             } else {
-                splitInternalNode(parentNode, key, rightNode);
+                splitInternalNode(parentNode, key, rightNode, path);
             }
         }
     }
 
-    private void updateNodeParent(Node node, int parentPageNum) throws IOException {
-        if (node instanceof LeafNode) {
-            LeafNode leaf = (LeafNode) node;
-            leaf.getPage().setParent(parentPageNum);
-            System.out.println("Updated parent of leaf " + node.getPageNumber() +
-                    " to " + parentPageNum);
-        } else if (node instanceof InternalNode) {
-            InternalNode internal = (InternalNode) node;
-            internal.setParent(parentPageNum);
-            System.out.println("Updated parent of internal node " + node.getPageNumber() +
-                    " to " + parentPageNum);
-        }
-    }
+    private void insertIntoInternal(InternalNode node, int key, Node rightChild) throws IOException {
+        int[] keys = new int[order];
+        int[] children = new int[order + 1];
+        int numKeys = node.readInto(keys, children);
 
-    private void insertIntoInternal(InternalNode node, int key, Node rightChild) {
         int pos = 0;
-        while (pos < node.getNumKeys() && node.getKeys()[pos] < key) {
+        while (pos < numKeys && keys[pos] < key) {
             pos++;
         }
 
         // Shift existing keys and children
-        for (int i = node.getNumKeys() - 1; i >= pos; i--) {
-            node.getKeys()[i + 1] = node.getKeys()[i];
-            node.getChildren()[i + 2] = node.getChildren()[i + 1];
-        }
+        System.arraycopy(keys, pos, keys, pos + 1, numKeys - pos);
+        System.arraycopy(children, pos + 1, children, pos + 2, numKeys - pos);
 
-        node.getKeys()[pos] = key;
-        node.getChildren()[pos + 1] = rightChild;
-        node.setNumKeys(node.getNumKeys() + 1);
+        keys[pos] = key;
+        children[pos + 1] = rightChild.getPageNumber();
+        node.write(keys, children, numKeys + 1);
     }
 
-    private void splitInternalNode(InternalNode node, int newKey, Node newChild) throws IOException {
+    private void splitInternalNode(InternalNode node, int newKey, Node newChild, DescentPath path)
+            throws IOException {
         int[] tempKeys = new int[order];
-        Node[] tempChildren = new Node[order + 1];
+        int[] tempChildren = new int[order + 1];
+        int numKeys = node.readInto(tempKeys, tempChildren);
 
         // Find position for new key
         int pos = 0;
-        while (pos < node.getNumKeys() && node.getKeys()[pos] < newKey) {
+        while (pos < numKeys && tempKeys[pos] < newKey) {
             pos++;
         }
 
-        // Copy to temp arrays
-        System.arraycopy(node.getKeys(), 0, tempKeys, 0, pos);
-        System.arraycopy(node.getChildren(), 0, tempChildren, 0, pos);
+        // Insert the new key and child into the temp arrays
+        System.arraycopy(tempKeys, pos, tempKeys, pos + 1, numKeys - pos);
+        System.arraycopy(tempChildren, pos + 1, tempChildren, pos + 2, numKeys - pos);
         tempKeys[pos] = newKey;
-        tempChildren[pos] = node.getChildren()[pos];
-        tempChildren[pos + 1] = newChild;
-        System.arraycopy(node.getKeys(), pos, tempKeys, pos + 1, node.getNumKeys() - pos);
-        System.arraycopy(node.getChildren(), pos + 1, tempChildren, pos + 2, node.getNumKeys() - pos);
+        tempChildren[pos + 1] = newChild.getPageNumber();
 
         // Create new internal node
-        InternalNode newNode = new InternalNode(assignPageNumber(), file);
+        InternalNode newNode = newInternalNode(path);
 
         // Find middle key that will be promoted
         int mid = (order - 1) / 2;
         int promoteKey = tempKeys[mid];
 
-        // Copy first half to original node
-        node.setNumKeys(mid);
-        System.arraycopy(tempKeys, 0, node.getKeys(), 0, mid);
-        System.arraycopy(tempChildren, 0, node.getChildren(), 0, mid + 1);
-
-        // Copy second half to new node
-        newNode.setNumKeys(order - 1 - mid - 1);
-        System.arraycopy(tempKeys, mid + 1, newNode.getKeys(), 0, newNode.getNumKeys());
-        System.arraycopy(tempChildren, mid + 1, newNode.getChildren(), 0, newNode.getNumKeys() + 1);
+        // First half stays in the original node, second half moves to the new node
+        node.write(tempKeys, tempChildren, mid);
+        newNode.write(Arrays.copyOfRange(tempKeys, mid + 1, order),
+                Arrays.copyOfRange(tempChildren, mid + 1, order + 1), order - mid - 1);
 
         // Promote middle key to parent
-        insertIntoParent(node, promoteKey, newNode);
-    }
-
-    private Node findParent(Node node) throws IOException {
-        if (node == root) {
-            throw new IOException("Cannot find parent of root");
-        }
-
-        Node current = root;
-        System.out.println("Finding parent for node " + node.getPageNumber() + ", starting at root " + root.getPageNumber());
-
-        while (!current.isLeaf()) {
-            InternalNode internal = (InternalNode) current;
-
-            // Check if any child is our target node
-            for (int i = 0; i <= internal.getNumKeys(); i++) {
-                if (internal.getChildren()[i] == node) {
-                    System.out.println("Found parent " + current.getPageNumber() + " for node " + node.getPageNumber());
-                    return current;
-                }
-            }
-
-            // If not found, traverse down using first key comparison
-            int firstKey;
-            if (node.isLeaf()) {
-                LeafNode leaf = (LeafNode) node;
-                Record[] records = leaf.getPage().getAllRecords();
-                firstKey = records.length > 0 ? records[0].getRowId() : 0;
-            } else {
-                InternalNode internalNode = (InternalNode) node;
-                firstKey = internalNode.getNumKeys() > 0 ? internalNode.getKeys()[0] : 0;
-            }
-
-            // Find appropriate child
-            int i = 0;
-            while (i < internal.getNumKeys() && internal.getKeys()[i] <= firstKey) {
-                i++;
-            }
-            current = internal.getChildren()[i];
-        }
-
-        throw new IOException("Parent not found for node " + node.getPageNumber());
-    }
-
-    private int binarySearch(int[] keys, int rowId, int numKeys) {
-        int left = 0;
-        int right = numKeys - 1;
-
-        while (left <= right) {
-            int mid = (left + right) / 2;
-            if (keys[mid] == rowId) return mid;
-            if (keys[mid] < rowId) left = mid + 1;
-            else right = mid - 1;
-        }
-        return left;
+        Log.trace(Log.Event.INTERNAL_SPLIT, node.getPageNumber(), newNode.getPageNumber());
+        insertIntoParent(node, promoteKey, newNode, path);
     }
 
     private int assignPageNumber() {
-        return nextPageNumber++;
+        return nextPageNumber.getAndIncrement();
     }
-}
\ No newline at end of file
+}
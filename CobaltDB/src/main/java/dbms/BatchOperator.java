@@ -0,0 +1,20 @@
+package dbms;
+
+import java.io.IOException;
+
+/**
+ * A step of a query plan. Each one pulls batches of rows from the operator below it, if any, and hands
+ * on batches of its own.
+ */
+public interface BatchOperator {
+    /**
+     * @return the next non-empty batch, or null once there are no more rows. The batch may be reused
+     * by the next call.
+     */
+    RowBatch next() throws IOException;
+
+    /**
+     * @return the columns of the batches, in order
+     */
+    String[] getColumns();
+}
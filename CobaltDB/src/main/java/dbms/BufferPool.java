@@ -0,0 +1,482 @@
+package dbms;
+
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.concurrent.locks.ReentrantReadWriteLock;
+
+/**
+ * Caches whole pages of a table file in memory.
+ * Pages are read with a single positional read, modified in memory and written back
+ * in one positional write when they are evicted or when the pool is flushed.
+ * Victims are chosen with the CLOCK (second chance) algorithm.
+ *
+ * Every frame carries the read/write latch of the page it holds and a pin count. Latching a page pins
+ * its frame, and pinned frames are never evicted. Pinning a cached page takes no lock; only misses
+ * take the pool monitor.
+ *
+ * With a WriteAheadLog attached, each frame also keeps the image of its page as of the last commit.
+ * A commit logs only the byte ranges where a modified page differs from that image. Pages changed since
+ * the last commit are never evicted, so the file only ever holds committed bytes that the log can redo;
+ * when every frame holds such a page the pool grows instead, and gives the extra frames back at the next
+ * commit or flush.
+ */
+public class BufferPool implements PageStore {
+    public static final int DEFAULT_CAPACITY = 256;
+    public static final long DEFAULT_CHECKPOINT_BYTES = 8L << 20;
+
+    private final FileChannel channel;
+    private final int pageSize;
+    private final WriteAheadLog wal;
+    private final long checkpointBytes;
+    private final int capacity;
+    private Frame[] frames;
+    private final Map<Integer, Frame> pageTable = new ConcurrentHashMap<>();
+    private final List<Frame> uncommitted = new ArrayList<>();
+    private boolean logging;
+    private ByteBuffer logBuffer;
+    private int clockHand;
+
+    private final LongAdder hits = new LongAdder();
+    private long misses;
+    private long evictions;
+    private long pageWrites;
+    private long commits;
+    private long checkpoints;
+
+    private static class Frame {
+        private final byte[] data;
+        private final ByteBuffer buffer;
+        private final byte[] logged;  // page as of the last commit, only kept with a log
+        private final ReentrantReadWriteLock latch = new ReentrantReadWriteLock();
+        private final AtomicInteger pins = new AtomicInteger();  // -1 while the frame is being replaced
+        private volatile int pageNumber = -1;
+        private volatile boolean dirty;
+        private volatile boolean referenced;
+        private volatile boolean uncommitted;
+        private long lsn;             // log position that must be durable before the page is written
+
+        Frame(int pageSize, boolean withLog) {
+            this.data = new byte[pageSize];
+            this.buffer = ByteBuffer.wrap(data);
+            this.logged = withLog ? new byte[pageSize] : null;
+        }
+    }
+
+    public BufferPool(RandomAccessFile file, int pageSize) {
+        this(file, pageSize, DEFAULT_CAPACITY);
+    }
+
+    public BufferPool(RandomAccessFile file, int pageSize, int capacity) {
+        this(file, pageSize, capacity, null);
+    }
+
+    public BufferPool(RandomAccessFile file, int pageSize, int capacity, WriteAheadLog wal) {
+        if (capacity < 1) {
+            throw new IllegalArgumentException("Buffer pool capacity must be at least 1");
+        }
+        this.channel = file.getChannel();
+        this.pageSize = pageSize;
+        this.capacity = capacity;
+        this.frames = new Frame[capacity];
+        this.wal = wal;
+        this.logging = wal != null;
+        this.checkpointBytes = Long.getLong("cobaltdb.checkpointBytes", DEFAULT_CHECKPOINT_BYTES);
+    }
+
+    /**
+     * Returns the cached buffer for a page, reading it from disk on a miss.
+     * Pages past the end of the file are returned zero-filled.
+     */
+    @Override
+    public ByteBuffer getPage(int pageNumber) throws IOException {
+        Frame frame = pageTable.get(pageNumber);
+        if (frame != null && frame.pageNumber == pageNumber) {
+            hits.increment();
+            frame.referenced = true;
+            return frame.buffer;
+        }
+        synchronized (this) {
+            frame = pageTable.get(pageNumber);
+            if (frame == null) {
+                frame = load(pageNumber);
+                frame.pins.set(0);
+            } else {
+                hits.increment();
+            }
+            return frame.buffer;
+        }
+    }
+
+    @Override
+    public void latch(int pageNumber, boolean exclusive) throws IOException {
+        Frame frame = pin(pageNumber);
+        if (exclusive) {
+            frame.latch.writeLock().lock();
+        } else {
+            frame.latch.readLock().lock();
+        }
+    }
+
+    @Override
+    public void unlatch(int pageNumber, boolean exclusive) {
+        // A pinned frame stays mapped to its page
+        Frame frame = pageTable.get(pageNumber);
+        if (exclusive) {
+            frame.latch.writeLock().unlock();
+        } else {
+            frame.latch.readLock().unlock();
+        }
+        frame.pins.decrementAndGet();
+    }
+
+    private Frame pin(int pageNumber) throws IOException {
+        Frame frame = pageTable.get(pageNumber);
+        if (frame != null) {
+            int pins = frame.pins.get();
+            // A frame can be replaced between the lookup and the pin, so its page is checked once pinned
+            if (pins >= 0 && frame.pins.compareAndSet(pins, pins + 1)) {
+                if (frame.pageNumber == pageNumber) {
+                    hits.increment();
+                    frame.referenced = true;
+                    return frame;
+                }
+                frame.pins.decrementAndGet();
+            }
+        }
+        synchronized (this) {
+            // Frames are only replaced under the monitor, so nothing here is half replaced
+            frame = pageTable.get(pageNumber);
+            if (frame == null) {
+                frame = load(pageNumber);
+                frame.pins.set(1);
+            } else {
+                hits.increment();
+                frame.pins.incrementAndGet();
+                frame.referenced = true;
+            }
+            return frame;
+        }
+    }
+
+    // Caller holds the monitor; the returned frame is still claimed (pins == -1)
+    private Frame load(int pageNumber) throws IOException {
+        misses++;
+        Frame frame = findVictim();
+        readFrame(frame, pageNumber);
+        pageTable.put(pageNumber, frame);
+        return frame;
+    }
+
+    /**
+     * Marks a cached page as modified so it is written back on eviction or flush.
+     */
+    @Override
+    public void markDirty(int pageNumber) {
+        Frame frame = pageTable.get(pageNumber);
+        if (frame == null) {
+            throw new IllegalStateException("Page " + pageNumber + " is not in the buffer pool");
+        }
+        frame.dirty = true;
+        if (!frame.uncommitted && wal != null) {
+            synchronized (this) {
+                if (logging && !frame.uncommitted) {
+                    frame.uncommitted = true;
+                    uncommitted.add(frame);
+                }
+            }
+        }
+    }
+
+    /**
+     * Writes every dirty page back to the file.
+     * With a log this is a checkpoint: pending changes are committed, the written pages are forced
+     * and the log is emptied.
+     */
+    @Override
+    public synchronized void flush() throws IOException {
+        if (wal != null) {
+            logUncommitted();
+        }
+        for (Frame frame : frames) {
+            if (frame != null && frame.dirty) {
+                writeFrame(frame);
+            }
+        }
+        if (wal != null) {
+            channel.force(false);
+            wal.reset();
+            checkpoints++;
+        }
+        shrink();
+    }
+
+    /**
+     * Logs the changes made since the last commit as one frame, checkpointing when the log has grown
+     * past -Dcobaltdb.checkpointBytes. Without a log the pages are written back instead.
+     */
+    @Override
+    public synchronized long logCommit() throws IOException {
+        if (wal == null) {
+            flush();
+            return 0;
+        }
+        long lsn = logUncommitted();
+        if (wal.size() > checkpointBytes) {
+            flush();
+        } else {
+            shrink();
+        }
+        return lsn;
+    }
+
+    @Override
+    public void awaitCommit(long position) throws IOException {
+        if (wal != null) {
+            wal.sync(position);
+        }
+    }
+
+    private long logUncommitted() throws IOException {
+        if (uncommitted.isEmpty()) {
+            return 0;
+        }
+        commits++;
+        if (logBuffer == null) {
+            logBuffer = ByteBuffer.allocate(pageSize);
+        }
+        logBuffer.clear();
+        for (Frame frame : uncommitted) {
+            logChanges(frame);
+        }
+        long lsn = 0;
+        if (logBuffer.position() > 0) {
+            logBuffer.flip();
+            lsn = wal.append(logBuffer);
+        }
+        for (Frame frame : uncommitted) {
+            frame.uncommitted = false;
+            frame.lsn = lsn;
+        }
+        uncommitted.clear();
+        return lsn;
+    }
+
+    @Override
+    public synchronized void setLogging(boolean enabled) throws IOException {
+        if (wal == null || enabled == logging) {
+            return;
+        }
+        flush();
+        logging = enabled;
+    }
+
+    // Appends the ranges where the frame differs from its last committed image, then brings that image
+    // up to date. Unchanged gaps shorter than a range header are folded into the surrounding range.
+    private void logChanges(Frame frame) {
+        byte[] data = frame.data;
+        byte[] logged = frame.logged;
+        int position = 0;
+        while (position < pageSize) {
+            int start = Arrays.mismatch(data, position, pageSize, logged, position, pageSize);
+            if (start < 0) {
+                break;
+            }
+            start += position;
+            int end = start + 1;
+            while (end < pageSize) {
+                int gapEnd = Math.min(pageSize, end + WriteAheadLog.RANGE_HEADER_SIZE);
+                int next = Arrays.mismatch(data, end, gapEnd, logged, end, gapEnd);
+                if (next < 0) {
+                    break;
+                }
+                end += next + 1;
+            }
+
+            // Lengths are stored in 16 bits, so only a fully rewritten 64 KB page needs two ranges
+            for (int from = start; from < end; from += 0xFFFF) {
+                int length = Math.min(0xFFFF, end - from);
+                ensureLogCapacity(WriteAheadLog.RANGE_HEADER_SIZE + length);
+                logBuffer.putInt(frame.pageNumber).putShort((short) from).putShort((short) length)
+                        .put(data, from, length);
+            }
+            System.arraycopy(data, start, logged, start, end - start);
+            position = end;
+        }
+    }
+
+    private void ensureLogCapacity(int needed) {
+        if (logBuffer.remaining() < needed) {
+            ByteBuffer larger = ByteBuffer.allocate(Math.max(logBuffer.capacity() * 2, logBuffer.position() + needed));
+            logBuffer.flip();
+            larger.put(logBuffer);
+            logBuffer = larger;
+        }
+    }
+
+    @Override
+    public synchronized void close() throws IOException {
+        flush();
+        if (wal != null) {
+            wal.close();
+        }
+        pageTable.clear();
+        Arrays.fill(frames, null);
+    }
+
+    @Override
+    public int getPageSize() {
+        return pageSize;
+    }
+
+    public long getHits() {
+        return hits.sum();
+    }
+
+    public synchronized long getMisses() {
+        return misses;
+    }
+
+    public synchronized long getEvictions() {
+        return evictions;
+    }
+
+    public synchronized long getPageWrites() {
+        return pageWrites;
+    }
+
+    public synchronized long getCommits() {
+        return commits;
+    }
+
+    public synchronized long getCheckpoints() {
+        return checkpoints;
+    }
+
+    // Caller holds the monitor. The victim is claimed by setting its pin count to -1, which fails
+    // for frames pinned by a latch holder.
+    private Frame findVictim() throws IOException {
+        // Two full turns clear every reference bit; finding nothing after that means every frame is pinned
+        // or holds uncommitted changes
+        for (int scanned = 0; scanned < 2 * frames.length; scanned++) {
+            Frame frame = frames[clockHand];
+            if (frame == null) {
+                frame = new Frame(pageSize, wal != null);
+                frame.pins.set(-1);
+                frames[clockHand] = frame;
+                advanceClock();
+                return frame;
+            }
+            if (frame.referenced) {
+                frame.referenced = false;
+                advanceClock();
+                continue;
+            }
+            if (frame.uncommitted || !frame.pins.compareAndSet(0, -1)) {
+                advanceClock();
+                continue;
+            }
+
+            if (frame.dirty) {
+                writeFrame(frame);
+            }
+            pageTable.remove(frame.pageNumber);
+            evictions++;
+            advanceClock();
+            return frame;
+        }
+
+        clockHand = frames.length;
+        frames = Arrays.copyOf(frames, frames.length * 2);
+        Log.warn("Buffer pool grew to " + frames.length + " frames to hold pinned or uncommitted pages");
+        return findVictim();
+    }
+
+    // Caller holds the monitor. Once their pages are committed, gives back the frames the pool grew by,
+    // evicting the pages they hold; frames still pinned are kept until a later commit.
+    private void shrink() throws IOException {
+        if (frames.length == capacity) {
+            return;
+        }
+        Frame[] kept = new Frame[frames.length];
+        int count = 0;
+        for (Frame frame : frames) {
+            if (frame == null) {
+                continue;
+            }
+            if (count < capacity || frame.uncommitted || !frame.pins.compareAndSet(0, -1)) {
+                kept[count++] = frame;
+                continue;
+            }
+            if (frame.dirty) {
+                writeFrame(frame);
+            }
+            pageTable.remove(frame.pageNumber);
+            frame.pageNumber = -1;  // so a lookup that raced the removal does not use the dropped frame
+            evictions++;
+        }
+        frames = Arrays.copyOf(kept, Math.max(capacity, count));
+        clockHand = 0;
+        if (Log.isInfoEnabled()) {
+            Log.info("Buffer pool shrank back to " + frames.length + " frames");
+        }
+    }
+
+    private void advanceClock() {
+        clockHand = (clockHand + 1) % frames.length;
+    }
+
+    private void readFrame(Frame frame, int pageNumber) throws IOException {
+        long position = (long) pageNumber * pageSize;
+        ByteBuffer target = ByteBuffer.wrap(frame.data);
+        while (target.hasRemaining()) {
+            int n = channel.read(target, position + target.position());
+            if (n < 0) {
+                break;
+            }
+        }
+        if (target.hasRemaining()) {
+            Arrays.fill(frame.data, target.position(), pageSize, (byte) 0);
+        }
+        if (frame.logged != null) {
+            System.arraycopy(frame.data, 0, frame.logged, 0, pageSize);
+        }
+        frame.pageNumber = pageNumber;
+        frame.dirty = false;
+        frame.referenced = true;
+        frame.uncommitted = false;
+    }
+
+    private void writeFrame(Frame frame) throws IOException {
+        if (wal != null) {
+            // The log has to reach the disk before the pages it describes
+            wal.sync(frame.lsn);
+        }
+        long position = (long) frame.pageNumber * pageSize;
+        ByteBuffer source = ByteBuffer.wrap(frame.data);
+        while (source.hasRemaining()) {
+            channel.write(source, position + source.position());
+        }
+        if (frame.logged != null) {
+            // Also picks up changes made while logging was off
+            System.arraycopy(frame.data, 0, frame.logged, 0, pageSize);
+        }
+        frame.dirty = false;
+        pageWrites++;
+    }
+
+    @Override
+    public synchronized String toString() {
+        return "BufferPool{hits=" + hits.sum() + ", misses=" + misses +
+                ", evictions=" + evictions + ", pageWrites=" + pageWrites +
+                (wal != null ? ", commits=" + commits + ", checkpoints=" + checkpoints + ", " + wal : "") + "}";
+    }
+}
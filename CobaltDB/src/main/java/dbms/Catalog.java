@@ -0,0 +1,208 @@
+package dbms;
+
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.StandardCopyOption;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.regex.Pattern;
+
+/**
+ * The tables of a database directory. Their names and column definitions are listed in a catalog file
+ * (cobaltdb.catalog), rewritten whenever a table is created. Each table's root page, page size and row
+ * counter stay in its own header page, which remains the one place they are kept.
+ *
+ * Open tables are cached, so switching between tables does not reopen their files, replay their logs or
+ * reread their headers. An open table holds its .tbl, .wal and index files, so the cache is bounded
+ * (-Dcobaltdb.maxOpenTables, default 64): opening one more table closes the least recently used one,
+ * flushing it. A handle returned by getTable is therefore only valid until the next call that opens
+ * another table.
+ */
+public class Catalog implements AutoCloseable {
+    public static final String CATALOG_FILE = "cobaltdb.catalog";
+    public static final int DEFAULT_MAX_OPEN_TABLES = 64;
+    private static final int MAGIC = 0x43424354;  // "CBCT"
+    private static final int VERSION = 1;
+    private static final Pattern TABLE_NAME = Pattern.compile("\\w+");
+
+    private final File directory;
+    private final int maxOpenTables;
+    // Table name to column definitions, in creation order
+    private final Map<String, String> tables = new LinkedHashMap<>();
+    private final LinkedHashMap<String, FileStorage> open;
+
+    public Catalog(String directory) {
+        this(directory, Integer.getInteger("cobaltdb.maxOpenTables", DEFAULT_MAX_OPEN_TABLES));
+    }
+
+    /**
+     * Opens the catalog of a directory, starting an empty one if it has none.
+     */
+    public Catalog(String directory, int maxOpenTables) {
+        if (maxOpenTables < 1) {
+            throw new IllegalArgumentException("At least one table must be allowed open: " + maxOpenTables);
+        }
+        this.directory = new File(directory);
+        this.maxOpenTables = maxOpenTables;
+        // Access-ordered, so the eldest entry is the least recently used table
+        this.open = new LinkedHashMap<String, FileStorage>(16, 0.75f, true) {
+            @Override
+            protected boolean removeEldestEntry(Map.Entry<String, FileStorage> eldest) {
+                if (size() <= Catalog.this.maxOpenTables) {
+                    return false;
+                }
+                if (Log.isDebugEnabled()) {
+                    Log.debug("Closing least recently used table " + eldest.getKey());
+                }
+                eldest.getValue().close();
+                return true;
+            }
+        };
+        try {
+            read();
+        } catch (IOException e) {
+            throw new RuntimeException("Error reading catalog: " + e.getMessage());
+        }
+    }
+
+    /**
+     * Creates a table, replacing any table of that name, and returns it open.
+     */
+    public synchronized FileStorage createTable(String name, String columns) {
+        checkName(name);
+        FileStorage previous = open.remove(name);
+        if (previous != null) {
+            previous.close();
+        }
+        FileStorage storage = new FileStorage(tableFile(name), columns);
+        open.put(name, storage);
+        if (!columns.equals(tables.put(name, columns))) {
+            write();
+        }
+        return storage;
+    }
+
+    /**
+     * Returns a table, opening it if it is not open. A table file in the directory that is missing from the
+     * catalog, as one created without it is, is added to it.
+     *
+     * @throws IllegalArgumentException if there is no such table
+     */
+    public synchronized FileStorage getTable(String name) {
+        FileStorage storage = open.get(name);
+        if (storage != null) {
+            return storage;
+        }
+        checkName(name);
+        if (!tables.containsKey(name) && !new File(tableFile(name)).exists()) {
+            throw new IllegalArgumentException("Table " + name + " does not exist, create the table first");
+        }
+        storage = new FileStorage(tableFile(name), null);
+        open.put(name, storage);
+        if (!tables.containsKey(name)) {
+            tables.put(name, storage.getColumns());
+            write();
+        }
+        return storage;
+    }
+
+    public synchronized boolean hasTable(String name) {
+        return tables.containsKey(name);
+    }
+
+    /**
+     * @return the column definitions of each table, by name, in creation order
+     */
+    public synchronized Map<String, String> getTables() {
+        return new LinkedHashMap<>(tables);
+    }
+
+    public synchronized boolean isOpen(String name) {
+        return open.containsKey(name);
+    }
+
+    public synchronized int getOpenTableCount() {
+        return open.size();
+    }
+
+    /**
+     * Closes every open table.
+     */
+    @Override
+    public synchronized void close() {
+        RuntimeException failure = null;
+        for (Iterator<FileStorage> it = open.values().iterator(); it.hasNext(); ) {
+            FileStorage storage = it.next();
+            it.remove();
+            try {
+                storage.close();
+            } catch (RuntimeException e) {
+                failure = failure == null ? e : failure;
+            }
+        }
+        if (failure != null) {
+            throw failure;
+        }
+    }
+
+    private String tableFile(String name) {
+        return new File(directory, name + ".tbl").getPath();
+    }
+
+    private static void checkName(String name) {
+        if (name == null || !TABLE_NAME.matcher(name).matches()) {
+            throw new IllegalArgumentException("Invalid table name: " + name);
+        }
+    }
+
+    private void read() throws IOException {
+        File file = new File(directory, CATALOG_FILE);
+        if (!file.exists()) {
+            return;
+        }
+        try (DataInputStream in = new DataInputStream(new FileInputStream(file))) {
+            if (in.readInt() != MAGIC) {
+                throw new IOException(file + " is not a catalog file");
+            }
+            int version = in.readInt();
+            if (version != VERSION) {
+                throw new IOException("Unsupported catalog version " + version);
+            }
+            int count = in.readInt();
+            for (int i = 0; i < count; i++) {
+                String name = in.readUTF();
+                tables.put(name, in.readUTF());
+            }
+        }
+    }
+
+    // Writes the catalog to a temporary file and renames it over the old one, so a crash leaves one or the other
+    private void write() {
+        File file = new File(directory, CATALOG_FILE);
+        File temporary = new File(directory, CATALOG_FILE + ".tmp");
+        try {
+            try (FileOutputStream stream = new FileOutputStream(temporary);
+                 DataOutputStream out = new DataOutputStream(stream)) {
+                out.writeInt(MAGIC);
+                out.writeInt(VERSION);
+                out.writeInt(tables.size());
+                for (Map.Entry<String, String> table : tables.entrySet()) {
+                    out.writeUTF(table.getKey());
+                    out.writeUTF(table.getValue());
+                }
+                out.flush();
+                stream.getFD().sync();
+            }
+            Files.move(temporary.toPath(), file.toPath(), StandardCopyOption.REPLACE_EXISTING,
+                    StandardCopyOption.ATOMIC_MOVE);
+        } catch (IOException e) {
+            throw new RuntimeException("Error writing catalog: " + e.getMessage());
+        }
+    }
+}
@@ -0,0 +1,57 @@
+package dbms;
+
+import java.io.IOException;
+
+/**
+ * An index on one column of a table, kept in a file of its own.
+ * Indexes are derived from their table and are not logged: one that is found dirty or behind its table
+ * when the table is opened reports isStale, and the table refills it from its rows.
+ */
+public interface ColumnIndex {
+    enum Kind {
+        BTREE,
+        HASH
+    }
+
+    String getColumn();
+
+    Kind getKind();
+
+    /**
+     * @return whether the index was created or cleared and has not been filled and flushed since
+     */
+    boolean isStale();
+
+    /**
+     * Adds the entry of a record, read from the indexed column.
+     *
+     * @return false if the index already held it
+     */
+    boolean insert(Record record) throws IOException;
+
+    /**
+     * Drops every entry and marks the index stale, for a table that lost the rows it indexed.
+     */
+    void clear() throws IOException;
+
+    /**
+     * @return whether find accepts bounds other than a single value
+     */
+    boolean supportsRanges();
+
+    /**
+     * Finds the rows whose value lies between from and to, both included; a null bound is open. A bound given
+     * as text for a column of another type is parsed as a value of that type.
+     *
+     * @throws IllegalArgumentException if the index cannot answer the range, see supportsRanges, or a bound
+     *                                  cannot be a value of the column
+     */
+    int[] find(Object from, Object to) throws IOException;
+
+    /**
+     * Writes the index back and marks it clean, as matching the table with the given next rowId.
+     */
+    void flush(int tableNextRowId) throws IOException;
+
+    void close() throws IOException;
+}
@@ -1,6 +1,16 @@
 package dbms;
 
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+
 public class ColumnType {
+    // Length of the "string" and plain "text" column types
+    public static final int DEFAULT_TEXT_LENGTH = 20;
+    // YEAR is stored in one byte as an offset from this year
+    private static final int YEAR_BASE = 2000;
+    public static final int MIN_YEAR = YEAR_BASE + Byte.MIN_VALUE;
+    public static final int MAX_YEAR = YEAR_BASE + Byte.MAX_VALUE;
+
     private final DataType dataType;
     private final TextType textType;
 
@@ -34,6 +44,38 @@ public class ColumnType {
         throw new IllegalArgumentException("Invalid type code: " + code);
     }
 
+    /**
+     * Parses a type as written in a column definition: a DataType name, text(n), or one of the
+     * older names int, short and string.
+     */
+    public static ColumnType parse(String typeName) {
+        String name = typeName.trim().toLowerCase();
+        switch (name) {
+            case "int":
+                return of(DataType.INT);
+            case "short":
+                return of(DataType.SMALLINT);
+            case "string":
+            case "text":
+                return ofText(DEFAULT_TEXT_LENGTH);
+            default:
+                break;
+        }
+        if (name.startsWith("text(") && name.endsWith(")")) {
+            try {
+                return ofText(Integer.parseInt(name.substring(5, name.length() - 1).trim()));
+            } catch (NumberFormatException e) {
+                throw new IllegalArgumentException("Invalid TEXT length: " + typeName);
+            }
+        }
+        for (DataType type : DataType.values()) {
+            if (type.name().equalsIgnoreCase(name)) {
+                return of(type);
+            }
+        }
+        throw new IllegalArgumentException("Unsupported type: " + typeName);
+    }
+
     public int getCode() {
         return isText() ? textType.getCode() : dataType.getCode();
     }
@@ -46,6 +88,279 @@ public class ColumnType {
         return textType != null;
     }
 
+    /**
+     * @return the data type, or null for TEXT
+     */
+    public DataType getDataType() {
+        return dataType;
+    }
+
+    /**
+     * Converts a value written as text, in a CSV file or an INSERT, to the object a Record holds for this type.
+     * YEAR takes the full year, TIME milliseconds since midnight, DATETIME and DATE milliseconds since the epoch.
+     *
+     * @throws NumberFormatException if the text is not a number of this type
+     * @throws IllegalArgumentException if a YEAR is outside MIN_YEAR..MAX_YEAR
+     */
+    public Object parseValue(String text) {
+        if (isText()) {
+            return text;
+        }
+        switch (dataType) {
+            case NULL:
+                return null;
+            case TINYINT:
+                return Byte.parseByte(text);
+            case SMALLINT:
+                return Short.parseShort(text);
+            case YEAR:
+                return checkYear(Integer.parseInt(text));
+            case INT:
+            case TIME:
+                return Integer.parseInt(text);
+            case BIGINT:
+            case DATETIME:
+            case DATE:
+                return Long.parseLong(text);
+            case FLOAT:
+                return Float.parseFloat(text);
+            case DOUBLE:
+                return Double.parseDouble(text);
+            default:
+                throw new IllegalStateException("Unhandled type " + dataType);
+        }
+    }
+
+    /**
+     * Checks a value handed in from outside a record, such as an index lookup bound, and converts text for a
+     * column of another type with parseValue, so write gets the object a Record would hold. Null is kept.
+     *
+     * @param column the name of the column, for the error
+     * @throws IllegalArgumentException if the value cannot be one of this type
+     */
+    public Object coerce(Object value, String column) {
+        if (value == null || (isText() ? value instanceof String : value instanceof Number)) {
+            return value;
+        }
+        if (value instanceof String && !isText()) {
+            try {
+                return parseValue((String) value);
+            } catch (IllegalArgumentException e) {
+                throw new IllegalArgumentException("Column " + column + " of type " + this + " cannot take '" +
+                        value + "'", e);
+            }
+        }
+        throw new IllegalArgumentException("Column " + column + " of type " + this + " cannot take a " +
+                value.getClass().getSimpleName());
+    }
+
+    /**
+     * @return the number of bytes write uses for value: getLength() for every type but TEXT, which only
+     * takes the characters it holds, up to its length
+     */
+    public int encodedLength(Object value) {
+        if (isText()) {
+            return Math.min(textOf(value).length(), textType.getLength());
+        }
+        return dataType.getLength();
+    }
+
+    private static String textOf(Object value) {
+        return value == null ? "DEFAULT" : value.toString();
+    }
+
+    /**
+     * Writes value in encodedLength(value) bytes at position. Numbers of another width are converted;
+     * a missing number is written as 0 (a missing YEAR as 2000) and missing text as "DEFAULT". Text longer
+     * than its length is cut, and characters outside ASCII are written as '?'.
+     *
+     * @throws IllegalArgumentException if a YEAR is outside MIN_YEAR..MAX_YEAR
+     */
+    public void write(ByteBuffer buf, int position, Object value) {
+        if (isText()) {
+            String text = textOf(value);
+            int length = encodedLength(text);
+            for (int i = 0; i < length; i++) {
+                char c = text.charAt(i);
+                buf.put(position + i, c < 0x80 ? (byte) c : (byte) '?');
+            }
+            return;
+        }
+        Number number = value == null ? 0 : (Number) value;
+        switch (dataType) {
+            case NULL:
+                break;
+            case TINYINT:
+                buf.put(position, number.byteValue());
+                break;
+            case YEAR:
+                buf.put(position, value == null ? 0 : (byte) (checkYear(number.longValue()) - YEAR_BASE));
+                break;
+            case SMALLINT:
+                buf.putShort(position, number.shortValue());
+                break;
+            case INT:
+            case TIME:
+                buf.putInt(position, number.intValue());
+                break;
+            case BIGINT:
+            case DATETIME:
+            case DATE:
+                buf.putLong(position, number.longValue());
+                break;
+            case FLOAT:
+                buf.putFloat(position, number.floatValue());
+                break;
+            case DOUBLE:
+                buf.putDouble(position, number.doubleValue());
+                break;
+            default:
+                throw new IllegalStateException("Unhandled type " + dataType);
+        }
+    }
+
+    /**
+     * Writes an integer type like write, without boxing the value.
+     */
+    void writeLong(ByteBuffer buf, int position, long value) {
+        switch (dataType == null ? DataType.NULL : dataType) {
+            case TINYINT:
+                buf.put(position, (byte) value);
+                break;
+            case YEAR:
+                buf.put(position, (byte) (checkYear(value) - YEAR_BASE));
+                break;
+            case SMALLINT:
+                buf.putShort(position, (short) value);
+                break;
+            case INT:
+            case TIME:
+                buf.putInt(position, (int) value);
+                break;
+            case BIGINT:
+            case DATETIME:
+            case DATE:
+                buf.putLong(position, value);
+                break;
+            default:
+                throw new IllegalArgumentException(this + " is not an integer type");
+        }
+    }
+
+    // One byte only holds the years around YEAR_BASE; anything else would wrap to another year
+    private static int checkYear(long year) {
+        if (year < MIN_YEAR || year > MAX_YEAR) {
+            throw new IllegalArgumentException("Year must be between " + MIN_YEAR + " and " + MAX_YEAR + ": " + year);
+        }
+        return (int) year;
+    }
+
+    /**
+     * Writes FLOAT or DOUBLE like write, without boxing the value.
+     */
+    void writeDouble(ByteBuffer buf, int position, double value) {
+        switch (dataType == null ? DataType.NULL : dataType) {
+            case FLOAT:
+                buf.putFloat(position, (float) value);
+                break;
+            case DOUBLE:
+                buf.putDouble(position, value);
+                break;
+            default:
+                throw new IllegalArgumentException(this + " is not a floating point type");
+        }
+    }
+
+    /**
+     * Reads a value written by write, boxed as parseValue returns it.
+     *
+     * @param length the encodedLength of the value; only TEXT needs it, as its record stores it
+     */
+    public Object read(ByteBuffer buf, int position, int length) {
+        if (isText()) {
+            return readText(buf, position, length);
+        }
+        switch (dataType) {
+            case NULL:
+                return null;
+            case TINYINT:
+                return buf.get(position);
+            case YEAR:
+                return YEAR_BASE + buf.get(position);
+            case SMALLINT:
+                return buf.getShort(position);
+            case INT:
+            case TIME:
+                return buf.getInt(position);
+            case BIGINT:
+            case DATETIME:
+            case DATE:
+                return buf.getLong(position);
+            case FLOAT:
+                return buf.getFloat(position);
+            case DOUBLE:
+                return buf.getDouble(position);
+            default:
+                throw new IllegalStateException("Unhandled type " + dataType);
+        }
+    }
+
+    static String readText(ByteBuffer buf, int position, int length) {
+        if (buf.hasArray()) {
+            return new String(buf.array(), buf.arrayOffset() + position, length, StandardCharsets.US_ASCII);
+        }
+        byte[] bytes = new byte[length];
+        buf.duplicate().position(position).get(bytes);
+        return new String(bytes, StandardCharsets.US_ASCII);
+    }
+
+    /**
+     * Reads an integer type of at most 4 bytes without boxing it.
+     */
+    int readInt(ByteBuffer buf, int position) {
+        switch (dataType == null ? DataType.NULL : dataType) {
+            case TINYINT:
+                return buf.get(position);
+            case YEAR:
+                return YEAR_BASE + buf.get(position);
+            case SMALLINT:
+                return buf.getShort(position);
+            case INT:
+            case TIME:
+                return buf.getInt(position);
+            default:
+                throw new IllegalArgumentException(this + " is not an integer of at most 4 bytes");
+        }
+    }
+
+    /**
+     * Reads any integer type without boxing it.
+     */
+    long readLong(ByteBuffer buf, int position) {
+        switch (dataType == null ? DataType.NULL : dataType) {
+            case BIGINT:
+            case DATETIME:
+            case DATE:
+                return buf.getLong(position);
+            default:
+                return readInt(buf, position);
+        }
+    }
+
+    /**
+     * Reads any numeric type without boxing it.
+     */
+    double readDouble(ByteBuffer buf, int position) {
+        switch (dataType == null ? DataType.NULL : dataType) {
+            case FLOAT:
+                return buf.getFloat(position);
+            case DOUBLE:
+                return buf.getDouble(position);
+            default:
+                return readLong(buf, position);
+        }
+    }
+
     @Override
     public String toString() {
         if (isText()) {
@@ -53,4 +368,4 @@ public class ColumnType {
         }
         return dataType.name();
     }
-}
\ No newline at end of file
+}
@@ -0,0 +1,104 @@
+package dbms;
+
+/**
+ * The values of one column for the rows of a RowBatch, unboxed: integers of at most 4 bytes in ints,
+ * BIGINT, DATE and DATETIME in longs, FLOAT and DOUBLE in doubles and text in texts. Only the array
+ * of the column's kind is allocated.
+ */
+public class ColumnVector {
+    enum Kind {
+        INT,
+        LONG,
+        DOUBLE,
+        TEXT,
+        NULL
+    }
+
+    private final ColumnType type;
+    final Kind kind;
+    final int[] ints;
+    final long[] longs;
+    final double[] doubles;
+    final String[] texts;
+
+    ColumnVector(ColumnType type, int capacity) {
+        this.type = type;
+        this.kind = kindOf(type);
+        this.ints = kind == Kind.INT ? new int[capacity] : null;
+        this.longs = kind == Kind.LONG ? new long[capacity] : null;
+        this.doubles = kind == Kind.DOUBLE ? new double[capacity] : null;
+        this.texts = kind == Kind.TEXT ? new String[capacity] : null;
+    }
+
+    static Kind kindOf(ColumnType type) {
+        if (type.isText()) {
+            return Kind.TEXT;
+        }
+        switch (type.getDataType()) {
+            case TINYINT:
+            case SMALLINT:
+            case INT:
+            case YEAR:
+            case TIME:
+                return Kind.INT;
+            case BIGINT:
+            case DATETIME:
+            case DATE:
+                return Kind.LONG;
+            case FLOAT:
+            case DOUBLE:
+                return Kind.DOUBLE;
+            default:
+                return Kind.NULL;
+        }
+    }
+
+    public ColumnType getType() {
+        return type;
+    }
+
+    // Reads a field of the viewed record into the given row
+    void read(RecordView view, int field, int row) {
+        switch (kind) {
+            case INT:
+                ints[row] = view.getInt(field);
+                break;
+            case LONG:
+                longs[row] = view.getLong(field);
+                break;
+            case DOUBLE:
+                doubles[row] = view.getDouble(field);
+                break;
+            case TEXT:
+                texts[row] = view.getString(field);
+                break;
+            default:
+                break;
+        }
+    }
+
+    /**
+     * @return the value of a row boxed the way Record holds it
+     */
+    public Object getValue(int row) {
+        switch (kind) {
+            case INT:
+                switch (type.getDataType()) {
+                    case TINYINT:
+                        return (byte) ints[row];
+                    case SMALLINT:
+                        return (short) ints[row];
+                    default:
+                        return ints[row];
+                }
+            case LONG:
+                return longs[row];
+            case DOUBLE:
+                return type.getDataType() == DataType.FLOAT ? (Object) (float) doubles[row] : (Object) doubles[row];
+            case TEXT:
+                return texts[row];
+            default:
+                return null;
+        }
+    }
+}
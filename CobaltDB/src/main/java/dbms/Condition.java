@@ -0,0 +1,75 @@
+package dbms;
+
+/**
+ * A comparison of a column with a constant, as in WHERE age >= 30. The constant is kept as written and
+ * converted to the column's type when a query is planned.
+ */
+public class Condition {
+    public enum Operator {
+        EQ("=", 0b010),
+        NE("!=", 0b101),
+        LT("<", 0b001),
+        LE("<=", 0b011),
+        GT(">", 0b100),
+        GE(">=", 0b110);
+
+        private final String symbol;
+        // Bit 0 accepts values less than the constant, bit 1 equal ones and bit 2 greater ones
+        private final int mask;
+
+        Operator(String symbol, int mask) {
+            this.symbol = symbol;
+            this.mask = mask;
+        }
+
+        int getMask() {
+            return mask;
+        }
+
+        public String getSymbol() {
+            return symbol;
+        }
+
+        /**
+         * @throws IllegalArgumentException if the symbol is not a comparison
+         */
+        public static Operator fromSymbol(String symbol) {
+            if (symbol.equals("<>")) {
+                return NE;
+            }
+            for (Operator operator : values()) {
+                if (operator.symbol.equals(symbol)) {
+                    return operator;
+                }
+            }
+            throw new IllegalArgumentException("Unknown comparison: " + symbol);
+        }
+    }
+
+    private final String column;
+    private final Operator operator;
+    private final String value;
+
+    public Condition(String column, Operator operator, String value) {
+        this.column = column;
+        this.operator = operator;
+        this.value = value;
+    }
+
+    public String getColumn() {
+        return column;
+    }
+
+    public Operator getOperator() {
+        return operator;
+    }
+
+    public String getValue() {
+        return value;
+    }
+
+    @Override
+    public String toString() {
+        return column + " " + operator.getSymbol() + " " + value;
+    }
+}
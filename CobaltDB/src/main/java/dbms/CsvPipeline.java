@@ -0,0 +1,267 @@
+package dbms;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.InterruptedIOException;
+import java.io.UncheckedIOException;
+import java.util.Iterator;
+import java.util.NoSuchElementException;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.CountDownLatch;
+import java.util.function.IntUnaryOperator;
+
+/**
+ * Parses and serializes the records of a CSV file on several threads, handing the serialized records
+ * to the thread iterating over it in file order.
+ *
+ * A reader thread cuts the file into chunks of whole records, skipping its header, and takes a block of
+ * consecutive rowIds for each chunk, so rows get contiguous rowIds in file order however the work is
+ * spread. Parser threads run a CsvTokenizer over the bytes of a chunk and encode its records. The
+ * iterating thread is the writer: it takes the chunks in the order they were read, waiting for each to be
+ * parsed. Both queues are bounded, so a slow writer holds the reader back instead of letting parsed chunks
+ * pile up.
+ *
+ * Parsers hand the buffer of each chunk back to the reader through a free queue once its records are
+ * encoded, and the reader copies the partial record at the end of a chunk straight into the next buffer,
+ * so a steady import allocates little more than the encoded records, one array each.
+ *
+ * Errors of any stage are rethrown by hasNext or next; I/O errors as UncheckedIOException.
+ */
+class CsvPipeline implements Iterator<byte[]>, AutoCloseable {
+    static final int CHUNK_BYTES = 256 * 1024;
+
+    interface RecordEncoder {
+        /**
+         * @return the current record of the tokenizer, serialized with the given rowId
+         */
+        byte[] encode(CsvTokenizer record, int rowId);
+    }
+
+    private static class Chunk {
+        final byte[] data;
+        final int offset;
+        final int length;
+        final byte[][] records;
+        final CountDownLatch done = new CountDownLatch(1);
+        int firstRowId;
+
+        Chunk(byte[] data, int offset, int length, int count) {
+            this.data = data;
+            this.offset = offset;
+            this.length = length;
+            this.records = new byte[count][];
+        }
+    }
+
+    // Marks the end of the file in the ordered queue, and tells a parser to stop in the work queue
+    private static final Chunk END = new Chunk(new byte[0], 0, 0, 0);
+
+    private final InputStream input;
+    private final RecordEncoder encoder;
+    private final IntUnaryOperator rowIds;
+    private final BlockingQueue<Chunk> work;
+    private final BlockingQueue<Chunk> ordered;
+    private final BlockingQueue<byte[]> free;
+    private final Thread reader;
+    private final Thread[] parsers;
+    private volatile Throwable failure;
+    private Chunk current;
+    private int index;
+
+    /**
+     * Starts the reader and parser threads.
+     *
+     * @param rowIds takes a number of rows and returns the first of that many consecutive rowIds
+     */
+    CsvPipeline(InputStream input, int parserThreads, RecordEncoder encoder, IntUnaryOperator rowIds) {
+        this.input = input;
+        this.encoder = encoder;
+        this.rowIds = rowIds;
+        this.work = new ArrayBlockingQueue<>(2 * parserThreads);
+        this.ordered = new ArrayBlockingQueue<>(4 * parserThreads);
+        this.free = new ArrayBlockingQueue<>(4 * parserThreads + 2);
+        this.reader = new Thread(this::read, "csv-reader");
+        this.reader.setDaemon(true);
+        this.parsers = new Thread[parserThreads];
+        for (int i = 0; i < parserThreads; i++) {
+            parsers[i] = new Thread(this::parse, "csv-parser-" + i);
+            parsers[i].setDaemon(true);
+            parsers[i].start();
+        }
+        reader.start();
+    }
+
+    private void read() {
+        try {
+            byte[] data = buffer(CHUNK_BYTES);
+            int length = 0;
+            boolean header = true;
+            boolean eof = false;
+            int[] counted = new int[1];
+            while (!eof) {
+                while (length < data.length) {
+                    int read = input.read(data, length, data.length - length);
+                    if (read < 0) {
+                        eof = true;
+                        break;
+                    }
+                    length += read;
+                }
+
+                int start = 0;
+                if (header) {
+                    // Blank lines before the header are skipped, as CsvTokenizer.next skips them
+                    int position = 0;
+                    int lineEnd = CsvTokenizer.scanRecords(data, position, length, counted, 1);
+                    while (lineEnd > position && counted[0] == 0) {
+                        position = lineEnd;
+                        lineEnd = CsvTokenizer.scanRecords(data, position, length, counted, 1);
+                    }
+                    if (lineEnd > position) {
+                        start = lineEnd;
+                        header = false;
+                    } else if (eof) {
+                        start = length;  // a header without a line feed, or only blank lines, and no records
+                        header = false;
+                    }
+                }
+                int end = 0;
+                int count = 0;
+                if (!header) {
+                    end = CsvTokenizer.scanRecords(data, start, length, counted, Integer.MAX_VALUE);
+                    count = counted[0];
+                    if (eof && end < length) {
+                        if (!CsvTokenizer.isBlankLine(data, end, length)) {
+                            count++;
+                        }
+                        end = length;
+                    }
+                }
+
+                // The partial record at the end moves to the next buffer before a parser can recycle this one;
+                // a record longer than a chunk makes the next buffer larger
+                int carried = length - end;
+                byte[] next = eof ? null : buffer(Math.max(CHUNK_BYTES, 2 * carried));
+                if (next != null) {
+                    System.arraycopy(data, end, next, 0, carried);
+                }
+                if (count > 0) {
+                    Chunk chunk = new Chunk(data, start, end - start, count);
+                    chunk.firstRowId = rowIds.applyAsInt(count);
+                    ordered.put(chunk);
+                    work.put(chunk);
+                } else {
+                    free.offer(data);
+                }
+                data = next;
+                length = carried;
+            }
+        } catch (IOException | RuntimeException e) {
+            failure = e;
+        } catch (InterruptedException e) {
+            return;
+        }
+        try {
+            ordered.put(END);
+            for (int i = 0; i < parsers.length; i++) {
+                work.put(END);
+            }
+        } catch (InterruptedException ignored) {
+            // Closed before the end of the file
+        }
+    }
+
+    // Takes a buffer back from the parsers, or allocates one if none of at least size bytes is free
+    private byte[] buffer(int size) {
+        byte[] data = free.poll();
+        return data != null && data.length >= size ? data : new byte[size];
+    }
+
+    private void parse() {
+        try {
+            Chunk chunk;
+            while ((chunk = work.take()) != END) {
+                try {
+                    CsvTokenizer tokenizer = new CsvTokenizer(chunk.data, chunk.offset, chunk.length);
+                    for (int i = 0; i < chunk.records.length; i++) {
+                        if (!tokenizer.next()) {
+                            throw new IllegalStateException("Chunk ended after " + i + " of " +
+                                    chunk.records.length + " records");
+                        }
+                        chunk.records[i] = encoder.encode(tokenizer, chunk.firstRowId + i);
+                    }
+                } catch (IOException | RuntimeException e) {
+                    failure = e;
+                } finally {
+                    // Encoded records hold copies of their fields, so the bytes of the chunk can be reused
+                    free.offer(chunk.data);
+                    chunk.done.countDown();
+                }
+            }
+        } catch (InterruptedException ignored) {
+            // Closed
+        }
+    }
+
+    @Override
+    public boolean hasNext() {
+        try {
+            while (current == null || index == current.records.length) {
+                if (current == END) {
+                    return false;
+                }
+                current = ordered.take();
+                index = 0;
+                if (current != END) {
+                    current.done.await();
+                }
+                if (failure != null) {
+                    current = END;
+                    if (failure instanceof IOException) {
+                        throw new UncheckedIOException((IOException) failure);
+                    }
+                    throw (RuntimeException) failure;
+                }
+            }
+            return true;
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new UncheckedIOException(new InterruptedIOException("CSV import interrupted"));
+        }
+    }
+
+    /**
+     * @return the next record, serialized, in file order
+     */
+    @Override
+    public byte[] next() {
+        if (!hasNext()) {
+            throw new NoSuchElementException();
+        }
+        return current.records[index++];
+    }
+
+    /**
+     * Stops the reader and parsers, if they are still running. The reader is waited for, so no rowIds are
+     * taken once this returns.
+     */
+    @Override
+    public void close() {
+        reader.interrupt();
+        for (Thread parser : parsers) {
+            parser.interrupt();
+        }
+        boolean interrupted = false;
+        while (reader.isAlive()) {
+            try {
+                reader.join();
+            } catch (InterruptedException e) {
+                interrupted = true;
+            }
+        }
+        if (interrupted) {
+            Thread.currentThread().interrupt();
+        }
+    }
+}
@@ -0,0 +1,334 @@
+package dbms;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+import java.util.Arrays;
+
+/**
+ * Splits CSV bytes into records and fields in place, without building strings. Records end at a line feed
+ * (an optional carriage return before it is dropped) and fields at a comma, except inside double quotes,
+ * where commas and line breaks are data and a doubled quote stands for one (RFC 4180). Whitespace around
+ * a field is trimmed, as is whitespace around its quotes; blank lines are skipped.
+ *
+ * The tokenizer reads either a stream, through a buffer it reuses and only grows for a record longer than
+ * it, or a byte array it is given. As a RecordCodec.FieldSource it lets the codec encode the current record
+ * straight from its bytes: integers are parsed from the digits and text bytes are copied as they are.
+ */
+class CsvTokenizer implements RecordCodec.FieldSource {
+    private static final int DEFAULT_BUFFER_SIZE = 64 * 1024;
+
+    private final InputStream in;
+    private byte[] buffer;
+    private int position;  // start of the next record
+    private int limit;     // end of the bytes read
+    private boolean eof;
+    private int[] fieldStart = new int[16];
+    private int[] fieldEnd = new int[16];
+    private int fieldCount;
+
+    CsvTokenizer(InputStream in) {
+        this.in = in;
+        this.buffer = new byte[DEFAULT_BUFFER_SIZE];
+    }
+
+    /**
+     * Tokenizes length bytes of data from offset, which must end at a record boundary. The bytes are
+     * changed as quoted fields are unescaped.
+     */
+    CsvTokenizer(byte[] data, int offset, int length) {
+        this.in = null;
+        this.buffer = data;
+        this.position = offset;
+        this.limit = offset + length;
+        this.eof = true;
+    }
+
+    /**
+     * Moves to the next record that is not blank.
+     *
+     * @return false at the end of the input
+     */
+    boolean next() throws IOException {
+        while (true) {
+            int end = findRecordEnd();
+            if (end < 0) {
+                return false;
+            }
+            int start = position;
+            position = end < limit ? end + 1 : end;
+            if (end > start && buffer[end - 1] == '\r') {
+                end--;
+            }
+            if (end > start) {
+                split(start, end);
+                return true;
+            }
+        }
+    }
+
+    // Returns the position of the line feed ending the record at position, or limit if the input ends
+    // first; -1 if no record is left. Reads more of the stream as needed, which may move the record.
+    private int findRecordEnd() throws IOException {
+        boolean quoted = false;
+        int i = position;
+        while (true) {
+            for (; i < limit; i++) {
+                byte b = buffer[i];
+                if (b == '"') {
+                    quoted = !quoted;
+                } else if (b == '\n' && !quoted) {
+                    return i;
+                }
+            }
+            if (eof || in == null) {
+                return position < limit ? limit : -1;
+            }
+            int scanned = i - position;
+            fill();
+            i = position + scanned;
+        }
+    }
+
+    // Moves the unread bytes to the front of the buffer, growing it if they fill it, and reads more
+    private void fill() throws IOException {
+        int remaining = limit - position;
+        if (remaining == buffer.length) {
+            byte[] larger = new byte[buffer.length * 2];
+            System.arraycopy(buffer, position, larger, 0, remaining);
+            buffer = larger;
+        } else {
+            System.arraycopy(buffer, position, buffer, 0, remaining);
+        }
+        position = 0;
+        limit = remaining;
+        int read = in.read(buffer, limit, buffer.length - limit);
+        if (read < 0) {
+            eof = true;
+        } else {
+            limit += read;
+        }
+    }
+
+    // Splits the record in [start, end) into fields, unescaping quoted ones in place
+    private void split(int start, int end) {
+        fieldCount = 0;
+        int i = start;
+        while (true) {
+            while (i < end && isBlank(buffer[i])) {
+                i++;
+            }
+            int from = i;
+            int to;
+            if (i < end && buffer[i] == '"') {
+                int write = ++i;
+                from = write;
+                while (i < end) {
+                    byte b = buffer[i++];
+                    if (b == '"') {
+                        if (i < end && buffer[i] == '"') {
+                            i++;
+                        } else {
+                            break;
+                        }
+                    }
+                    buffer[write++] = b;
+                }
+                to = write;
+                // Anything between the closing quote and the comma other than whitespace is kept
+                while (i < end && buffer[i] != ',') {
+                    if (!isBlank(buffer[i])) {
+                        buffer[to++] = buffer[i];
+                    }
+                    i++;
+                }
+            } else {
+                while (i < end && buffer[i] != ',') {
+                    i++;
+                }
+                to = i;
+                while (to > from && isBlank(buffer[to - 1])) {
+                    to--;
+                }
+            }
+            addField(from, to);
+            if (i >= end) {
+                return;
+            }
+            i++;  // the comma
+        }
+    }
+
+    private static boolean isBlank(byte b) {
+        return b == ' ' || b == '\t' || b == '\r';
+    }
+
+    private void addField(int from, int to) {
+        if (fieldCount == fieldStart.length) {
+            fieldStart = Arrays.copyOf(fieldStart, fieldCount * 2);
+            fieldEnd = Arrays.copyOf(fieldEnd, fieldCount * 2);
+        }
+        fieldStart[fieldCount] = from;
+        fieldEnd[fieldCount++] = to;
+    }
+
+    int getFieldCount() {
+        return fieldCount;
+    }
+
+    /**
+     * @return a field of the current record as a string; this allocates, unlike the other readers
+     */
+    String getString(int field) {
+        return new String(buffer, fieldStart[field], fieldEnd[field] - fieldStart[field], StandardCharsets.UTF_8);
+    }
+
+    /**
+     * @return the current record as text, for error messages
+     */
+    String getRecord() {
+        StringBuilder record = new StringBuilder();
+        for (int i = 0; i < fieldCount; i++) {
+            record.append(i > 0 ? "," : "").append(getString(i));
+        }
+        return record.toString();
+    }
+
+    /**
+     * Parses a field of decimal digits with an optional sign.
+     *
+     * @throws NumberFormatException if it is not an integer between min and max
+     */
+    long parseLong(int field, long min, long max) {
+        int i = fieldStart[field];
+        int end = fieldEnd[field];
+        boolean negative = i < end && buffer[i] == '-';
+        if (i < end && (buffer[i] == '-' || buffer[i] == '+')) {
+            i++;
+        }
+        if (i == end) {
+            throw new NumberFormatException("For input string: \"" + getString(field) + "\"");
+        }
+        // Accumulated negatively, so that Long.MIN_VALUE fits
+        long value = 0;
+        for (; i < end; i++) {
+            int digit = buffer[i] - '0';
+            if (digit < 0 || digit > 9 || value < Long.MIN_VALUE / 10 || value * 10 < Long.MIN_VALUE + digit) {
+                throw new NumberFormatException("For input string: \"" + getString(field) + "\"");
+            }
+            value = value * 10 - digit;
+        }
+        if (!negative) {
+            if (value == Long.MIN_VALUE) {
+                throw new NumberFormatException("For input string: \"" + getString(field) + "\"");
+            }
+            value = -value;
+        }
+        if (value < min || value > max) {
+            throw new NumberFormatException("Value out of range. Value:\"" + getString(field) + "\"");
+        }
+        return value;
+    }
+
+    /**
+     * Reads an integer field for a column of the given type. A SMALLINT field that is not a short is read
+     * as 0 with a warning rather than failing the import, as CSV imports always have; other types throw
+     * NumberFormatException.
+     */
+    @Override
+    public long getLong(int field, ColumnType type) {
+        switch (type.getDataType()) {
+            case TINYINT:
+                return parseLong(field, Byte.MIN_VALUE, Byte.MAX_VALUE);
+            case SMALLINT:
+                try {
+                    return parseLong(field, Short.MIN_VALUE, Short.MAX_VALUE);
+                } catch (NumberFormatException e) {
+                    Log.warn("Could not parse short value: " + getString(field));
+                    return 0;
+                }
+            case YEAR:
+                return parseLong(field, ColumnType.MIN_YEAR, ColumnType.MAX_YEAR);
+            case INT:
+            case TIME:
+                return parseLong(field, Integer.MIN_VALUE, Integer.MAX_VALUE);
+            default:
+                return parseLong(field, Long.MIN_VALUE, Long.MAX_VALUE);
+        }
+    }
+
+    /**
+     * Reads a FLOAT or DOUBLE field. Unlike the integer readers this goes through a string.
+     */
+    @Override
+    public double getDouble(int field, ColumnType type) {
+        return Double.parseDouble(getString(field));
+    }
+
+    /**
+     * @return the number of characters of a text field, at most max; a UTF-8 sequence counts as one
+     */
+    @Override
+    public int getTextLength(int field, int max) {
+        int length = 0;
+        for (int i = fieldStart[field]; i < fieldEnd[field] && length < max; i++) {
+            if ((buffer[i] & 0xC0) != 0x80) {
+                length++;
+            }
+        }
+        return length;
+    }
+
+    /**
+     * Copies the first length characters of a text field, writing characters outside ASCII as '?'
+     * like ColumnType.write.
+     */
+    @Override
+    public void copyText(int field, ByteBuffer target, int position, int length) {
+        int written = 0;
+        for (int i = fieldStart[field]; i < fieldEnd[field] && written < length; i++) {
+            byte b = buffer[i];
+            if (b >= 0) {
+                target.put(position + written++, b);
+            } else if ((b & 0xC0) != 0x80) {
+                target.put(position + written++, (byte) '?');
+            }
+        }
+    }
+
+    /**
+     * Finds the end of the first complete records in data[from, to), skipping quoted line breaks.
+     *
+     * @param counted receives in its first element the number of those records that are not blank
+     * @param max     the number of records to stop after, blank ones included
+     * @return the position just after the line feed ending the last of them, or from if there is none
+     */
+    static int scanRecords(byte[] data, int from, int to, int[] counted, int max) {
+        boolean quoted = false;
+        int recordStart = from;
+        int records = 0;
+        int count = 0;
+        for (int i = from; i < to && records < max; i++) {
+            byte b = data[i];
+            if (b == '"') {
+                quoted = !quoted;
+            } else if (b == '\n' && !quoted) {
+                if (!isBlankLine(data, recordStart, i)) {
+                    count++;
+                }
+                records++;
+                recordStart = i + 1;
+            }
+        }
+        counted[0] = count;
+        return recordStart;
+    }
+
+    /**
+     * @return whether data[start, end) holds a record next would skip
+     */
+    static boolean isBlankLine(byte[] data, int start, int end) {
+        return end == start || (end == start + 1 && data[start] == '\r');
+    }
+}
@@ -1,26 +1,77 @@
 package dbms;
 
+import java.io.File;
 import java.io.IOException;
 import java.io.RandomAccessFile;
 import java.util.*;
 
 public class FileStorage {
-    private static final int PAGE_SIZE = 512;
     private final Map<Table, RandomAccessFile> file = new HashMap<>();
     private final Map<String, Table> table = new HashMap<>();
     private final String filename;
     private final String columns;
     private final Schema schema;
+    private final StorageBackend backend;
+    private final int pageSize;
 
     public FileStorage(String filename, String columns) {
+        this(filename, columns, StorageBackend.fromSystemProperty());
+    }
+
+    public FileStorage(String filename, String columns, StorageBackend backend) {
+        this(filename, columns, backend, Integer.getInteger("cobaltdb.pageSize", Page.DEFAULT_PAGE_SIZE));
+    }
+
+    /**
+     * Creates a new table when columns are given, truncating any existing file.
+     * With columns == null the existing table file is opened and its schema and page size
+     * are read from the header page; the pageSize argument only applies to new tables.
+     */
+    public FileStorage(String filename, String columns, StorageBackend backend, int pageSize) {
         this.filename = filename;
-        this.columns = columns;
-        System.out.println("FileStorage: Creating schema with columns: " + columns);
-        //todo: create the schema
+        this.backend = backend;
+        if (columns == null) {
+            recoverLog();
+        }
+        TableHeader existingHeader = columns == null ? readExistingHeader() : null;
+        this.columns = columns != null ? columns : existingHeader.getColumns();
+        this.pageSize = existingHeader != null ? existingHeader.getPageSize() : pageSize;
         // Parse the columns string to create the schema
-        this.schema = createSchema(columns);
-        System.out.println("FileStorage: Created schema: " + this.schema);
-        initializeFile();
+        this.schema = createSchema(this.columns);
+        initializeFile(existingHeader);
+    }
+
+    private String getTableFile() {
+        // Get table name without extension
+        return getTableName() + ".tbl";
+    }
+
+    // The file name up to the first dot of its last path element
+    private String getTableName() {
+        String name = new File(filename).getName();
+        int dot = name.indexOf('.');
+        return dot < 0 ? filename : filename.substring(0, filename.length() - name.length() + dot);
+    }
+
+    // Replays a write-ahead log left behind by a crash, before anything reads the table file
+    private void recoverLog() {
+        try {
+            WriteAheadLog.recover(Table.walFile(getTableName()), getTableFile());
+        } catch (IOException e) {
+            throw new RuntimeException("Error recovering table from its log: " + e.getMessage());
+        }
+    }
+
+    private TableHeader readExistingHeader() {
+        try {
+            TableHeader header = TableHeader.read(getTableFile());
+            if (header == null) {
+                throw new IllegalArgumentException("Table file " + getTableFile() + " does not exist, create the table first");
+            }
+            return header;
+        } catch (IOException e) {
+            throw new RuntimeException("Error reading table header: " + e.getMessage());
+        }
     }
 
     private Schema createSchema(String columns) {
@@ -40,63 +91,36 @@ public class FileStorage {
             String fieldName = parts[0].trim();
             String fieldType = parts[1].trim();
 
-            // Use default lengths for simplicity
-            int length = getDefaultLength(fieldType);
-            fields.add(new Schema.Metadata(fieldName, fieldType, length));
+            fields.add(new Schema.Metadata(fieldName, fieldType));
         }
 
         Schema schema = new Schema(fields);
-        System.out.println("FileStorage.createSchema: Created schema with fields: " + fields);
-        return schema;
-    }
-
-    private static int getDefaultLength(String type) {
-        switch (type.toLowerCase()) {
-            case "string":
-                return 20; // Default fixed length for strings
-            case "int":
-                return 4;  // Integers are 4 bytes
-            case "short":
-                return 2;  // Shorts are 2 bytes
-            default:
-                throw new IllegalArgumentException("Unsupported type: " + type);
+        if (Log.isDebugEnabled()) {
+            Log.debug("FileStorage.createSchema: Created schema with fields: " + fields);
         }
+        return schema;
     }
 
-    private void initializeFile() {
+    private void initializeFile(TableHeader existingHeader) {
         try {
-            // Get table name without extension
-            String tableName = filename.split("\\.")[0];
+            String tableName = getTableName();
 
             // Create .tbl file as per spec
-            String tableFile = tableName + ".tbl";
-            RandomAccessFile tempFile = new RandomAccessFile(tableFile, "rw");
+            RandomAccessFile tempFile = new RandomAccessFile(getTableFile(), "rw");
 
             // Create table with B+tree
-            Table newTable = new Table(schema, tempFile, tableName, columns);
+            Table newTable = new Table(schema, tempFile, tableName, columns, backend, pageSize);
             table.put(filename, newTable);
             file.put(newTable, tempFile);
 
-            // Initialize file with a header
-            tempFile.setLength(0);
-            tempFile.setLength(PAGE_SIZE);
-            tempFile.seek(0);  // Move to the beginning of the file
-
-            // Write header (16 bytes as an example)
-            tempFile.writeByte(1);         // Page type (1 byte, e.g., 1 for leaf page)
-            tempFile.writeShort(0);        // Number of records (2 bytes)
-            tempFile.writeInt(PAGE_SIZE);  // Cell content start offset (4 bytes)
-            tempFile.writeLong(0);         // Reserved/unused space (8 bytes)
-
-            // Fill the rest of the page with zeros
-            byte[] emptyPage = new byte[PAGE_SIZE - 16];
-            tempFile.write(emptyPage);
-
-            // Initialize table
-            table.get(filename).initialize();
+            if (existingHeader == null) {
+                newTable.initialize();
+            } else {
+                newTable.open(existingHeader);
+            }
 
         } catch (Exception e) {
-            System.out.println("Error initializing file: " + e.getMessage());
+            Log.error("Error initializing file: " + e.getMessage(), null);
             throw new RuntimeException(e);
         }
     }
@@ -104,15 +128,24 @@ public class FileStorage {
     public void startCSVProcess(String csvfile) {
         try {
             Table currentTable = table.get(filename);
-            System.out.println("FileStorage.startCSVProcess: Retrieved table with schema: " + currentTable.getSchema());
             RandomAccessFile currentFile = file.get(currentTable);
             currentTable.processCsv(currentFile, csvfile);  // Pass both the file and filename
         } catch (Exception e) {
-            System.out.println("Error processing CSV: " + e.getMessage());
+            Log.error("Error processing CSV: " + e.getMessage(), null);
             throw new RuntimeException(e);
         }
     }
 
+    public void close() {
+        try {
+            Table currentTable = table.get(filename);
+            currentTable.close();
+            file.get(currentTable).close();
+        } catch (IOException e) {
+            throw new RuntimeException("Error closing table file: " + e.getMessage());
+        }
+    }
+
     public long getFileSize() {
         try {
             return file.get(table.get(filename)).length();
@@ -125,11 +158,122 @@ public class FileStorage {
         return this.schema;
     }
 
+    /**
+     * @return the column definitions the schema was built from, as CREATE TABLE takes them
+     */
+    public String getColumns() {
+        return columns;
+    }
+
+    public int assignRowId() {
+        return table.get(filename).assignRowId();
+    }
+
+    public Record getRecord(int rowId) {
+        try {
+            return table.get(filename).get(rowId);
+        } catch (IOException e) {
+            throw new RuntimeException("Error reading record " + rowId + ": " + e.getMessage());
+        }
+    }
+
+    public RecordCursor scan(int fromRowId, int toRowId) {
+        try {
+            return table.get(filename).scan(fromRowId, toRowId);
+        } catch (IOException e) {
+            throw new RuntimeException("Error opening scan: " + e.getMessage());
+        }
+    }
+
+    /**
+     * Looks up a record, decoding only the given columns.
+     */
+    public Record getRecord(int rowId, String... columns) {
+        try {
+            Table currentTable = table.get(filename);
+            return currentTable.get(rowId, currentTable.project(columns));
+        } catch (IOException e) {
+            throw new RuntimeException("Error reading record " + rowId + ": " + e.getMessage());
+        }
+    }
+
+    /**
+     * Scans a rowId range, decoding only the given columns of each record.
+     */
+    public RecordCursor scan(int fromRowId, int toRowId, String... columns) {
+        try {
+            Table currentTable = table.get(filename);
+            return currentTable.scan(fromRowId, toRowId, currentTable.project(columns));
+        } catch (IOException e) {
+            throw new RuntimeException("Error opening scan: " + e.getMessage());
+        }
+    }
+
+    /**
+     * Plans a SELECT on this table; pull its rows from the returned operator a batch at a time.
+     */
+    public BatchOperator select(SelectStatement statement) {
+        try {
+            return statement.plan(table.get(filename), RowBatch.DEFAULT_CAPACITY);
+        } catch (IOException e) {
+            throw new RuntimeException("Error opening scan: " + e.getMessage());
+        }
+    }
+
+    /**
+     * Answers a SELECT COUNT(*) on this table.
+     */
+    public long count(SelectStatement statement) {
+        try {
+            return statement.count(table.get(filename));
+        } catch (IOException e) {
+            throw new RuntimeException("Error scanning table: " + e.getMessage());
+        }
+    }
+
+    public void createIndex(String column) {
+        createIndex(column, ColumnIndex.Kind.BTREE);
+    }
+
+    public void createIndex(String column, ColumnIndex.Kind kind) {
+        try {
+            table.get(filename).createIndex(column, kind);
+        } catch (IOException e) {
+            throw new RuntimeException("Error creating index on " + column + ": " + e.getMessage());
+        }
+    }
+
+    /**
+     * Finds through a column's index the records whose value lies between from and to, both included
+     * (null for an open bound), decoding only the given columns, or all of them if none are given.
+     */
+    public List<Record> getByIndex(String column, Object from, Object to, String... columns) {
+        try {
+            Table currentTable = table.get(filename);
+            Projection projection = columns.length == 0 ? Projection.all(schema) : currentTable.project(columns);
+            return currentTable.getByIndex(column, from, to, projection);
+        } catch (IOException e) {
+            throw new RuntimeException("Error reading index on " + column + ": " + e.getMessage());
+        }
+    }
+
+    /**
+     * Starts a batch of inserts into this table; see PreparedInsert.
+     */
+    public PreparedInsert prepareInsert() {
+        Table currentTable = table.get(filename);
+        if (currentTable == null) {
+            throw new RuntimeException("No table selected");
+        }
+        return currentTable.prepareInsert();
+    }
+
     public void insertRecord(Record record) {
         try {
             Table currentTable = table.get(filename);
             if (currentTable != null) {
                 currentTable.insertRecord(record);
+                currentTable.commit();
             } else {
                 throw new RuntimeException("No table selected");
             }
@@ -0,0 +1,149 @@
+package dbms;
+
+import java.io.IOException;
+import java.util.List;
+
+/**
+ * Keeps the rows of its child's batches that satisfy every condition, by narrowing their selection vectors.
+ * Each condition runs as one loop over the primitive array of its column, comparing against a constant
+ * converted to the column's type up front; the operator is turned into a bit mask, so the loop body has
+ * a single branch whatever the comparison.
+ */
+public class FilterOperator implements BatchOperator {
+    private final BatchOperator child;
+    private final int[] columns;
+    private final int[] masks;
+    private final int[] intConstants;
+    private final long[] longConstants;
+    private final double[] doubleConstants;
+    private final String[] textConstants;
+
+    /**
+     * @throws IllegalArgumentException if a condition names a column the child does not produce, or its
+     * constant is not a value of the column's type
+     */
+    public FilterOperator(BatchOperator child, List<Condition> conditions, Schema schema) {
+        this.child = child;
+        int count = conditions.size();
+        this.columns = new int[count];
+        this.masks = new int[count];
+        this.intConstants = new int[count];
+        this.longConstants = new long[count];
+        this.doubleConstants = new double[count];
+        this.textConstants = new String[count];
+        String[] available = child.getColumns();
+        RecordCodec codec = schema.getCodec();
+        for (int i = 0; i < count; i++) {
+            Condition condition = conditions.get(i);
+            columns[i] = -1;
+            for (int j = 0; j < available.length; j++) {
+                if (available[j].equals(condition.getColumn())) {
+                    columns[i] = j;
+                }
+            }
+            if (columns[i] < 0) {
+                throw new IllegalArgumentException("Column not found: " + condition.getColumn());
+            }
+            masks[i] = condition.getOperator().getMask();
+            ColumnType type = codec.getType(codec.fieldIndex(condition.getColumn()));
+            Object value;
+            try {
+                value = type.parseValue(condition.getValue());
+            } catch (NumberFormatException e) {
+                throw new IllegalArgumentException("Cannot compare " + condition.getColumn() + " (" + type +
+                        ") with " + condition.getValue());
+            }
+            switch (ColumnVector.kindOf(type)) {
+                case INT:
+                    intConstants[i] = ((Number) value).intValue();
+                    break;
+                case LONG:
+                    longConstants[i] = ((Number) value).longValue();
+                    break;
+                case DOUBLE:
+                    doubleConstants[i] = ((Number) value).doubleValue();
+                    break;
+                case TEXT:
+                    textConstants[i] = (String) value;
+                    break;
+                default:
+                    throw new IllegalArgumentException("Column " + condition.getColumn() + " holds no values");
+            }
+        }
+    }
+
+    @Override
+    public String[] getColumns() {
+        return child.getColumns();
+    }
+
+    @Override
+    public RowBatch next() throws IOException {
+        RowBatch batch;
+        while ((batch = child.next()) != null) {
+            for (int i = 0; i < columns.length && batch.size > 0; i++) {
+                batch.size = filter(batch, i);
+            }
+            if (batch.size > 0) {
+                return batch;
+            }
+        }
+        return null;
+    }
+
+    // Narrows the selection of the batch to the rows passing condition c; returns how many are left
+    private int filter(RowBatch batch, int c) {
+        ColumnVector vector = batch.getColumn(columns[c]);
+        int[] selection = batch.selection;
+        int size = batch.size;
+        int mask = masks[c];
+        int kept = 0;
+        switch (vector.kind) {
+            case INT: {
+                int[] values = vector.ints;
+                int constant = intConstants[c];
+                for (int i = 0; i < size; i++) {
+                    int row = selection[i];
+                    if ((mask >>> (Integer.compare(values[row], constant) + 1) & 1) != 0) {
+                        selection[kept++] = row;
+                    }
+                }
+                break;
+            }
+            case LONG: {
+                long[] values = vector.longs;
+                long constant = longConstants[c];
+                for (int i = 0; i < size; i++) {
+                    int row = selection[i];
+                    if ((mask >>> (Long.compare(values[row], constant) + 1) & 1) != 0) {
+                        selection[kept++] = row;
+                    }
+                }
+                break;
+            }
+            case DOUBLE: {
+                double[] values = vector.doubles;
+                double constant = doubleConstants[c];
+                for (int i = 0; i < size; i++) {
+                    int row = selection[i];
+                    if ((mask >>> (Double.compare(values[row], constant) + 1) & 1) != 0) {
+                        selection[kept++] = row;
+                    }
+                }
+                break;
+            }
+            default: {
+                String[] values = vector.texts;
+                String constant = textConstants[c];
+                for (int i = 0; i < size; i++) {
+                    int row = selection[i];
+                    if ((mask >>> (Integer.signum(values[row].compareTo(constant)) + 1) & 1) != 0) {
+                        selection[kept++] = row;
+                    }
+                }
+                break;
+            }
+        }
+        return kept;
+    }
+}
@@ -0,0 +1,614 @@
+package dbms;
+
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+import java.util.Arrays;
+import java.util.concurrent.locks.ReentrantReadWriteLock;
+
+/**
+ * Extendible hash index on one column of a table, kept in its own file (see fileName), for equality lookups.
+ * Entries are the column value followed by the rowId and go to the bucket page the directory holds for the
+ * low globalDepth bits of the value's hash. The directory stays in memory, so a lookup reads one bucket page
+ * (plus the overflow pages of a bucket holding many equal values), and is written to its own pages on flush.
+ *
+ * A full bucket splits on the next bit of the hash, doubling the directory if it already used every bit the
+ * directory does, and keeps splitting while the target bucket is still full; only that bucket's chain is
+ * redistributed. An entry goes to an overflow page chained to the bucket only when no split below
+ * MAX_GLOBAL_DEPTH could separate it from the rest, that is when they all hold its value.
+ *
+ * Durability works as in SecondaryIndex: the header is marked dirty before the first change after a flush,
+ * and the table rebuilds an index it finds dirty or behind when it is opened.
+ */
+public class HashIndex implements ColumnIndex {
+    private static final byte BUCKET_PAGE_TYPE = 0x06;
+    private static final byte DIRECTORY_PAGE_TYPE = 0x07;
+    private static final int MAGIC = 0x43424858;  // "CBHX"
+    private static final short VERSION = 1;
+    private static final int HEADER_PAGE = 0;
+    private static final int MAX_GLOBAL_DEPTH = 24;
+
+    // Header page layout (byte offsets within page 0)
+    private static final int MAGIC_OFFSET = 0;
+    private static final int VERSION_OFFSET = 4;
+    private static final int DIRTY_OFFSET = 6;             // 1 while the file may not match the table
+    private static final int PAGE_SIZE_OFFSET = 8;
+    private static final int GLOBAL_DEPTH_OFFSET = 12;
+    private static final int NEXT_PAGE_OFFSET = 16;
+    private static final int NEXT_ROW_ID_OFFSET = 20;      // the table's next rowId at the last flush
+    private static final int DIRECTORY_PAGE_OFFSET = 24;   // first of the consecutive directory pages
+    private static final int DIRECTORY_PAGES_OFFSET = 28;
+    private static final int FREE_PAGE_OFFSET = 32;        // head of the chain of free pages
+    private static final int COLUMN_LENGTH_OFFSET = 36;
+    private static final int COLUMN_OFFSET = 38;
+
+    // Bucket and directory page layout: a header, then fixed-size entries or directory slots
+    private static final int PAGE_TYPE = 0;
+    private static final int LOCAL_DEPTH = 1;
+    private static final int CELL_COUNT = 2;
+    private static final int OVERFLOW_POINTER = 8;  // next page of a bucket's chain, next free page
+    private static final int PAGE_HEADER_SIZE = 16;
+    private static final int ROW_ID_BYTES = 4;
+    private static final int SLOT_BYTES = 4;
+
+    private final String column;
+    private final ColumnType type;
+    private final RandomAccessFile file;
+    private final PageStore pageStore;
+    private final int pageSize;
+    private final int valueSize;
+    private final int entrySize;
+    private final int maxEntries;
+    private final ReentrantReadWriteLock lock = new ReentrantReadWriteLock();
+    private int[] directory;
+    private int globalDepth;
+    private int nextPage = HEADER_PAGE + 1;
+    private int directoryPage = -1;
+    private int directoryPages;
+    private int freePage = -1;
+    private int indexedNextRowId = -1;
+    private boolean dirty = true;
+    private boolean stale;
+
+    private HashIndex(String path, Schema schema, String column, StorageBackend backend, int pageSize)
+            throws IOException {
+        RecordCodec codec = schema.getCodec();
+        this.column = column;
+        this.type = codec.getType(codec.fieldIndex(column));
+        if (!type.isText() && type.getDataType() == DataType.NULL) {
+            throw new IllegalArgumentException("Column " + column + " holds no values to index");
+        }
+        this.valueSize = type.getLength();
+        this.entrySize = valueSize + ROW_ID_BYTES;
+        this.pageSize = pageSize;
+        this.maxEntries = (pageSize - PAGE_HEADER_SIZE) / entrySize;
+        if (maxEntries < 2 || COLUMN_OFFSET + column.length() > pageSize) {
+            throw new IllegalArgumentException("Column " + column + " is too wide to index in " + pageSize +
+                    " byte pages");
+        }
+        this.file = new RandomAccessFile(path, "rw");
+        this.pageStore = backend.open(file, pageSize);
+    }
+
+    public static String fileName(String tableName, String column) {
+        return tableName + "." + column + ".hidx";
+    }
+
+    /**
+     * Creates an empty index file, replacing any file of the same name. The index starts out stale,
+     * so the caller fills it from the table and flushes it.
+     */
+    public static HashIndex create(String path, Schema schema, String column, StorageBackend backend,
+                                   int pageSize) throws IOException {
+        HashIndex index = new HashIndex(path, schema, column, backend, pageSize);
+        index.file.setLength(0);
+        index.clear();
+        return index;
+    }
+
+    /**
+     * Opens an existing index file. An index that is dirty, unreadable or was last flushed at another table
+     * state than tableNextRowId is cleared and reported by isStale, so the caller can rebuild it.
+     */
+    public static HashIndex open(String path, Schema schema, String column, StorageBackend backend,
+                                 int pageSize, int tableNextRowId) throws IOException {
+        HashIndex index = new HashIndex(path, schema, column, backend, pageSize);
+        if (!index.readHeader() || index.dirty || index.indexedNextRowId != tableNextRowId) {
+            Log.warn("Index " + path + " does not match its table and is rebuilt");
+            index.clear();
+        }
+        return index;
+    }
+
+    @Override
+    public boolean isStale() {
+        return stale;
+    }
+
+    @Override
+    public String getColumn() {
+        return column;
+    }
+
+    @Override
+    public Kind getKind() {
+        return Kind.HASH;
+    }
+
+    @Override
+    public boolean supportsRanges() {
+        return false;
+    }
+
+    // Returns false when page 0 is not the header of an index on this column
+    private boolean readHeader() throws IOException {
+        if (file.length() < pageSize) {
+            return false;
+        }
+        pageStore.latch(HEADER_PAGE, false);
+        try {
+            ByteBuffer buf = pageStore.getPage(HEADER_PAGE);
+            if (buf.getInt(MAGIC_OFFSET) != MAGIC || buf.getShort(VERSION_OFFSET) != VERSION ||
+                    buf.getInt(PAGE_SIZE_OFFSET) != pageSize) {
+                return false;
+            }
+            byte[] name = new byte[buf.getShort(COLUMN_LENGTH_OFFSET) & 0xFFFF];
+            buf.duplicate().position(COLUMN_OFFSET).get(name);
+            if (!column.equals(new String(name, StandardCharsets.US_ASCII))) {
+                return false;
+            }
+            dirty = buf.get(DIRTY_OFFSET) != 0;
+            globalDepth = buf.getInt(GLOBAL_DEPTH_OFFSET);
+            nextPage = buf.getInt(NEXT_PAGE_OFFSET);
+            indexedNextRowId = buf.getInt(NEXT_ROW_ID_OFFSET);
+            directoryPage = buf.getInt(DIRECTORY_PAGE_OFFSET);
+            directoryPages = buf.getInt(DIRECTORY_PAGES_OFFSET);
+            freePage = buf.getInt(FREE_PAGE_OFFSET);
+        } finally {
+            pageStore.unlatch(HEADER_PAGE, false);
+        }
+        if (dirty || directoryPage < 0 || globalDepth < 0 || globalDepth > MAX_GLOBAL_DEPTH) {
+            return false;
+        }
+        readDirectory();
+        return true;
+    }
+
+    private void writeHeader() throws IOException {
+        byte[] name = column.getBytes(StandardCharsets.US_ASCII);
+        pageStore.latch(HEADER_PAGE, true);
+        try {
+            ByteBuffer buf = pageStore.getPage(HEADER_PAGE);
+            buf.putInt(MAGIC_OFFSET, MAGIC);
+            buf.putShort(VERSION_OFFSET, VERSION);
+            buf.put(DIRTY_OFFSET, (byte) (dirty ? 1 : 0));
+            buf.putInt(PAGE_SIZE_OFFSET, pageSize);
+            buf.putInt(GLOBAL_DEPTH_OFFSET, globalDepth);
+            buf.putInt(NEXT_PAGE_OFFSET, nextPage);
+            buf.putInt(NEXT_ROW_ID_OFFSET, indexedNextRowId);
+            buf.putInt(DIRECTORY_PAGE_OFFSET, directoryPage);
+            buf.putInt(DIRECTORY_PAGES_OFFSET, directoryPages);
+            buf.putInt(FREE_PAGE_OFFSET, freePage);
+            buf.putShort(COLUMN_LENGTH_OFFSET, (short) name.length);
+            buf.duplicate().position(COLUMN_OFFSET).put(name);
+            pageStore.markDirty(HEADER_PAGE);
+        } finally {
+            pageStore.unlatch(HEADER_PAGE, true);
+        }
+    }
+
+    private int slotsPerPage() {
+        return (pageSize - PAGE_HEADER_SIZE) / SLOT_BYTES;
+    }
+
+    private void readDirectory() throws IOException {
+        directory = new int[1 << globalDepth];
+        int perPage = slotsPerPage();
+        for (int i = 0; i < directory.length; i += perPage) {
+            int page = directoryPage + i / perPage;
+            pageStore.latch(page, false);
+            try {
+                ByteBuffer buf = pageStore.getPage(page);
+                for (int j = i; j < Math.min(directory.length, i + perPage); j++) {
+                    directory[j] = buf.getInt(PAGE_HEADER_SIZE + (j - i) * SLOT_BYTES);
+                }
+            } finally {
+                pageStore.unlatch(page, false);
+            }
+        }
+    }
+
+    // Writes the directory to its pages, moving it to a longer run at the end of the file once it outgrows them
+    private void writeDirectory() throws IOException {
+        int perPage = slotsPerPage();
+        int needed = (directory.length + perPage - 1) / perPage;
+        if (needed > directoryPages) {
+            for (int i = 0; i < directoryPages; i++) {
+                freePage(directoryPage + i);
+            }
+            directoryPage = nextPage;
+            directoryPages = needed;
+            nextPage += needed;
+        }
+        for (int i = 0; i < directory.length; i += perPage) {
+            int page = directoryPage + i / perPage;
+            pageStore.latch(page, true);
+            try {
+                ByteBuffer buf = pageStore.getPage(page);
+                buf.put(PAGE_TYPE, DIRECTORY_PAGE_TYPE);
+                for (int j = i; j < Math.min(directory.length, i + perPage); j++) {
+                    buf.putInt(PAGE_HEADER_SIZE + (j - i) * SLOT_BYTES, directory[j]);
+                }
+                pageStore.markDirty(page);
+            } finally {
+                pageStore.unlatch(page, true);
+            }
+        }
+    }
+
+    /**
+     * Drops every entry, leaving a single empty bucket; the pages past it are reused as the index grows again.
+     */
+    @Override
+    public void clear() throws IOException {
+        lock.writeLock().lock();
+        try {
+            nextPage = HEADER_PAGE + 1;
+            freePage = -1;
+            directoryPage = -1;
+            directoryPages = 0;
+            globalDepth = 0;
+            directory = new int[]{allocatePage()};
+            writeBucket(directory[0], 0, new byte[0], 0, 0, -1);
+            dirty = true;
+            stale = true;
+            writeHeader();
+        } finally {
+            lock.writeLock().unlock();
+        }
+    }
+
+    @Override
+    public void flush(int tableNextRowId) throws IOException {
+        lock.writeLock().lock();
+        try {
+            writeDirectory();
+            dirty = false;
+            stale = false;
+            indexedNextRowId = tableNextRowId;
+            writeHeader();
+            pageStore.flush();
+            file.getChannel().force(false);
+        } finally {
+            lock.writeLock().unlock();
+        }
+    }
+
+    @Override
+    public void close() throws IOException {
+        lock.writeLock().lock();
+        try {
+            pageStore.close();
+            file.close();
+        } finally {
+            lock.writeLock().unlock();
+        }
+    }
+
+    @Override
+    public boolean insert(Record record) throws IOException {
+        return insert(record.getRowId(), record.getValue(column));
+    }
+
+    public boolean insert(int rowId, Object value) throws IOException {
+        byte[] entry = encodeEntry(value, rowId);
+        int hash = hash(ByteBuffer.wrap(entry), 0);
+        lock.writeLock().lock();
+        try {
+            if (!dirty) {
+                // The file has to say it may be out of date before any page of it can change
+                dirty = true;
+                writeHeader();
+                pageStore.flush();
+                file.getChannel().force(false);
+            }
+            int bucket = directory[hash & ((1 << globalDepth) - 1)];
+            Room room = findRoom(bucket, entry, hash);
+            if (room.duplicate) {
+                return false;
+            }
+            while (room.page < 0 && room.splittable) {
+                splitBucket(bucket);
+                bucket = directory[hash & ((1 << globalDepth) - 1)];
+                room = findRoom(bucket, entry, hash);
+            }
+            int page = room.page;
+            if (page < 0) {
+                page = allocatePage();
+                writeBucket(page, 0, entry, 0, 0, -1);
+                setOverflow(room.lastPage, page);
+            }
+            appendEntry(page, entry);
+            return true;
+        } finally {
+            lock.writeLock().unlock();
+        }
+    }
+
+    // What findRoom learned about a bucket's chain
+    private static final class Room {
+        boolean duplicate;   // the entry is already there
+        int page = -1;       // first page of the chain with room for another entry
+        int lastPage;        // end of the chain, where an overflow page would go
+        boolean splittable;  // a split at a depth below MAX_GLOBAL_DEPTH would separate some entries
+    }
+
+    // Walks the chain of bucket looking for entry, whose value hashes to hash
+    private Room findRoom(int bucket, byte[] entry, int hash) throws IOException {
+        Room room = new Room();
+        int localDepth = 0;
+        int differing = 0;  // the hash bits on which some entry differs from the new one
+        int page = bucket;
+        while (page >= 0) {
+            int current = page;
+            pageStore.latch(current, false);
+            try {
+                ByteBuffer buf = pageStore.getPage(current);
+                if (current == bucket) {
+                    localDepth = buf.get(LOCAL_DEPTH);
+                }
+                int cells = cellCount(buf);
+                for (int i = 0; i < cells; i++) {
+                    int cell = PAGE_HEADER_SIZE + i * entrySize;
+                    if (equal(buf, cell, entry, entrySize)) {
+                        room.duplicate = true;
+                        return room;
+                    }
+                    if (!equal(buf, cell, entry, valueSize)) {
+                        differing |= hash(buf, cell) ^ hash;
+                    }
+                }
+                if (room.page < 0 && cells < maxEntries) {
+                    room.page = current;
+                }
+                room.lastPage = current;
+                page = buf.getInt(OVERFLOW_POINTER);
+            } finally {
+                pageStore.unlatch(current, false);
+            }
+        }
+        int splitBits = (1 << MAX_GLOBAL_DEPTH) - (1 << localDepth);
+        room.splittable = (differing & splitBits) != 0;
+        return room;
+    }
+
+    // Splits bucket on the bit after its local depth, doubling the directory first if it has no such bit.
+    // Every entry of the chain is redistributed, and a side that still overflows one page is chained again.
+    private void splitBucket(int bucket) throws IOException {
+        int localDepth = 0;
+        byte[] entries = new byte[maxEntries * entrySize];
+        int count = 0;
+        int page = bucket;
+        while (page >= 0) {
+            int current = page;
+            pageStore.latch(current, false);
+            try {
+                ByteBuffer buf = pageStore.getPage(current);
+                if (current == bucket) {
+                    localDepth = buf.get(LOCAL_DEPTH);
+                }
+                int cells = cellCount(buf);
+                if ((count + cells) * entrySize > entries.length) {
+                    entries = Arrays.copyOf(entries, Math.max(entries.length * 2, (count + cells) * entrySize));
+                }
+                getBytes(buf, PAGE_HEADER_SIZE, entries, count * entrySize, cells * entrySize);
+                count += cells;
+                page = buf.getInt(OVERFLOW_POINTER);
+            } finally {
+                pageStore.unlatch(current, false);
+            }
+            if (current != bucket) {
+                freePage(current);
+            }
+        }
+
+        if (localDepth == globalDepth) {
+            directory = Arrays.copyOf(directory, directory.length * 2);
+            System.arraycopy(directory, 0, directory, directory.length / 2, directory.length / 2);
+            globalDepth++;
+        }
+        byte[] stay = new byte[count * entrySize];
+        byte[] move = new byte[count * entrySize];
+        int stayCount = 0;
+        int moveCount = 0;
+        ByteBuffer all = ByteBuffer.wrap(entries);
+        for (int i = 0; i < count; i++) {
+            if ((hash(all, i * entrySize) >>> localDepth & 1) == 0) {
+                System.arraycopy(entries, i * entrySize, stay, stayCount++ * entrySize, entrySize);
+            } else {
+                System.arraycopy(entries, i * entrySize, move, moveCount++ * entrySize, entrySize);
+            }
+        }
+        int sibling = allocatePage();
+        writeChain(sibling, localDepth + 1, move, moveCount);
+        writeChain(bucket, localDepth + 1, stay, stayCount);
+        for (int i = 0; i < directory.length; i++) {
+            if (directory[i] == bucket && (i >>> localDepth & 1) != 0) {
+                directory[i] = sibling;
+            }
+        }
+    }
+
+    // Writes count entries to a bucket starting at page, chaining further pages as each one fills
+    private void writeChain(int page, int localDepth, byte[] entries, int count) throws IOException {
+        int from = 0;
+        do {
+            int cells = Math.min(count - from, maxEntries);
+            int next = from + cells < count ? allocatePage() : -1;
+            writeBucket(page, localDepth, entries, from, cells, next);
+            from += cells;
+            page = next;
+        } while (page >= 0);
+    }
+
+    /**
+     * Reads the bucket of the value's hash and its overflow pages, if any.
+     *
+     * @return the rowIds of the rows holding value, in order
+     * @throws IllegalArgumentException unless from and to are the same value of the column
+     */
+    @Override
+    public int[] find(Object from, Object to) throws IOException {
+        from = type.coerce(from, column);
+        if (from == null || !from.equals(type.coerce(to, column))) {
+            throw new IllegalArgumentException("Hash index on " + column + " only answers equality lookups");
+        }
+        byte[] entry = encodeEntry(from, 0);
+        int hash = hash(ByteBuffer.wrap(entry), 0);
+        int[] rowIds = new int[16];
+        int count = 0;
+        lock.readLock().lock();
+        try {
+            int page = directory[hash & ((1 << globalDepth) - 1)];
+            while (page >= 0) {
+                int current = page;
+                pageStore.latch(current, false);
+                try {
+                    ByteBuffer buf = pageStore.getPage(current);
+                    int cells = cellCount(buf);
+                    for (int i = 0; i < cells; i++) {
+                        int cell = PAGE_HEADER_SIZE + i * entrySize;
+                        if (equal(buf, cell, entry, valueSize)) {
+                            if (count == rowIds.length) {
+                                rowIds = Arrays.copyOf(rowIds, count * 2);
+                            }
+                            rowIds[count++] = buf.getInt(cell + valueSize);
+                        }
+                    }
+                    page = buf.getInt(OVERFLOW_POINTER);
+                } finally {
+                    pageStore.unlatch(current, false);
+                }
+            }
+        } finally {
+            lock.readLock().unlock();
+        }
+        int[] result = Arrays.copyOf(rowIds, count);
+        Arrays.sort(result);
+        return result;
+    }
+
+    private byte[] encodeEntry(Object value, int rowId) {
+        ByteBuffer entry = ByteBuffer.allocate(entrySize);
+        type.write(entry, 0, type.coerce(value, column));
+        entry.putInt(valueSize, rowId);
+        return entry.array();
+    }
+
+    // Hashes the value bytes of the entry at offset; the mixing spreads short keys over the low bits
+    private int hash(ByteBuffer entries, int offset) {
+        int h = 0x811C9DC5;
+        for (int i = offset; i < offset + valueSize; i++) {
+            h = (h ^ entries.get(i)) * 0x01000193;
+        }
+        h ^= h >>> 16;
+        h *= 0x85EBCA6B;
+        h ^= h >>> 13;
+        h *= 0xC2B2AE35;
+        return h ^ h >>> 16;
+    }
+
+    private static boolean equal(ByteBuffer buf, int position, byte[] entry, int length) {
+        for (int i = 0; i < length; i++) {
+            if (buf.get(position + i) != entry[i]) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    private int allocatePage() throws IOException {
+        if (freePage < 0) {
+            return nextPage++;
+        }
+        int page = freePage;
+        pageStore.latch(page, false);
+        try {
+            freePage = pageStore.getPage(page).getInt(OVERFLOW_POINTER);
+        } finally {
+            pageStore.unlatch(page, false);
+        }
+        return page;
+    }
+
+    private void freePage(int page) throws IOException {
+        setOverflow(page, freePage);
+        freePage = page;
+    }
+
+    private static int cellCount(ByteBuffer buf) {
+        return buf.getShort(CELL_COUNT) & 0xFFFF;
+    }
+
+    private void writeBucket(int page, int localDepth, byte[] entries, int from, int count, int overflow)
+            throws IOException {
+        pageStore.latch(page, true);
+        try {
+            ByteBuffer buf = pageStore.getPage(page);
+            buf.put(PAGE_TYPE, BUCKET_PAGE_TYPE);
+            buf.put(LOCAL_DEPTH, (byte) localDepth);
+            buf.putShort(CELL_COUNT, (short) count);
+            buf.putInt(OVERFLOW_POINTER, overflow);
+            putBytes(buf, PAGE_HEADER_SIZE, entries, from * entrySize, count * entrySize);
+            pageStore.markDirty(page);
+        } finally {
+            pageStore.unlatch(page, true);
+        }
+    }
+
+    private void appendEntry(int page, byte[] entry) throws IOException {
+        pageStore.latch(page, true);
+        try {
+            ByteBuffer buf = pageStore.getPage(page);
+            int cells = cellCount(buf);
+            putBytes(buf, PAGE_HEADER_SIZE + cells * entrySize, entry, 0, entrySize);
+            buf.putShort(CELL_COUNT, (short) (cells + 1));
+            pageStore.markDirty(page);
+        } finally {
+            pageStore.unlatch(page, true);
+        }
+    }
+
+    private void setOverflow(int page, int next) throws IOException {
+        pageStore.latch(page, true);
+        try {
+            pageStore.getPage(page).putInt(OVERFLOW_POINTER, next);
+            pageStore.markDirty(page);
+        } finally {
+            pageStore.unlatch(page, true);
+        }
+    }
+
+    private static void putBytes(ByteBuffer buf, int position, byte[] source, int offset, int length) {
+        if (buf.hasArray()) {
+            System.arraycopy(source, offset, buf.array(), buf.arrayOffset() + position, length);
+        } else {
+            buf.duplicate().position(position).put(source, offset, length);
+        }
+    }
+
+    private static void getBytes(ByteBuffer buf, int position, byte[] target, int offset, int length) {
+        if (buf.hasArray()) {
+            System.arraycopy(buf.array(), buf.arrayOffset() + position, target, offset, length);
+        } else {
+            buf.duplicate().position(position).get(target, offset, length);
+        }
+    }
+
+    @Override
+    public String toString() {
+        return "HashIndex{column=" + column + ", globalDepth=" + globalDepth + ", nextPage=" + nextPage +
+                ", dirty=" + dirty + "}";
+    }
+}
@@ -0,0 +1,40 @@
+package dbms;
+
+import java.io.IOException;
+
+/**
+ * Passes on at most a given number of rows, and stops pulling batches once it has.
+ */
+public class LimitOperator implements BatchOperator {
+    private final BatchOperator child;
+    private long remaining;
+
+    public LimitOperator(BatchOperator child, long limit) {
+        if (limit < 0) {
+            throw new IllegalArgumentException("Negative limit: " + limit);
+        }
+        this.child = child;
+        this.remaining = limit;
+    }
+
+    @Override
+    public String[] getColumns() {
+        return child.getColumns();
+    }
+
+    @Override
+    public RowBatch next() throws IOException {
+        if (remaining == 0) {
+            return null;
+        }
+        RowBatch batch = child.next();
+        if (batch == null) {
+            return null;
+        }
+        if (batch.size > remaining) {
+            batch.size = (int) remaining;
+        }
+        remaining -= batch.size;
+        return batch;
+    }
+}
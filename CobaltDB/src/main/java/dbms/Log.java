@@ -0,0 +1,141 @@
+package dbms;
+
+import java.io.PrintStream;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Leveled logging for the storage layer.
+ *
+ * The level is read once from -Dcobaltdb.log (DEBUG, INFO, WARN, ERROR or OFF, default INFO) and kept in
+ * static finals, so a disabled check like {@code if (Log.isDebugEnabled())} folds away in the JIT.
+ * Callers guard every message that concatenates strings or serializes data behind such a check.
+ *
+ * With -Dcobaltdb.trace=true insert and split events are also recorded into a fixed-size ring buffer of
+ * primitives (size -Dcobaltdb.traceSize, default 8192) that can be printed with {@link #dumpTrace}.
+ */
+public final class Log {
+    public enum Level { DEBUG, INFO, WARN, ERROR, OFF }
+
+    /** Events recorded in the trace ring buffer; a and b are event specific. */
+    public enum Event {
+        INSERT("rowId", "leaf"),
+        LEAF_SPLIT("left", "right"),
+        INTERNAL_SPLIT("left", "right"),
+        NEW_ROOT("root", "left");
+
+        private final String a;
+        private final String b;
+
+        Event(String a, String b) {
+            this.a = a;
+            this.b = b;
+        }
+    }
+
+    private static final Level LEVEL = parseLevel(System.getProperty("cobaltdb.log", "INFO"));
+    private static final boolean DEBUG = LEVEL.compareTo(Level.DEBUG) <= 0;
+    private static final boolean INFO = LEVEL.compareTo(Level.INFO) <= 0;
+    private static final boolean WARN = LEVEL.compareTo(Level.WARN) <= 0;
+    private static final boolean ERROR = LEVEL.compareTo(Level.ERROR) <= 0;
+    private static final boolean TRACE = Boolean.getBoolean("cobaltdb.trace");
+
+    private static final int TRACE_SIZE =
+            Integer.highestOneBit(Math.max(16, Integer.getInteger("cobaltdb.traceSize", 8192)));
+    private static final Event[] EVENTS = Event.values();
+    // Slot i holds event ordinal, a and b at 3*i; times are kept separately to stay long
+    private static final int[] traceData = TRACE ? new int[TRACE_SIZE * 3] : null;
+    private static final long[] traceTimes = TRACE ? new long[TRACE_SIZE] : null;
+    private static final AtomicLong traceCount = new AtomicLong();
+
+    private static final PrintStream out = System.out;
+
+    private Log() {
+    }
+
+    private static Level parseLevel(String name) {
+        try {
+            return Level.valueOf(name.trim().toUpperCase());
+        } catch (IllegalArgumentException e) {
+            System.err.println("Unknown log level " + name + ", using INFO");
+            return Level.INFO;
+        }
+    }
+
+    public static Level getLevel() {
+        return LEVEL;
+    }
+
+    public static boolean isDebugEnabled() {
+        return DEBUG;
+    }
+
+    public static boolean isInfoEnabled() {
+        return INFO;
+    }
+
+    public static boolean isTraceEnabled() {
+        return TRACE;
+    }
+
+    public static void debug(String message) {
+        if (DEBUG) {
+            out.println(message);
+        }
+    }
+
+    public static void info(String message) {
+        if (INFO) {
+            out.println(message);
+        }
+    }
+
+    public static void warn(String message) {
+        if (WARN) {
+            out.println("WARN: " + message);
+        }
+    }
+
+    public static void error(String message, Throwable cause) {
+        if (ERROR) {
+            out.println("ERROR: " + message);
+            if (cause != null) {
+                cause.printStackTrace();
+            }
+        }
+    }
+
+    /**
+     * Records an event in the trace ring buffer; a no-op unless tracing is enabled.
+     * Takes only primitives so that callers do not allocate on the hot path.
+     */
+    public static void trace(Event event, int a, int b) {
+        if (!TRACE) {
+            return;
+        }
+        long seq = traceCount.getAndIncrement();
+        int slot = (int) (seq & (TRACE_SIZE - 1));
+        traceData[slot * 3] = event.ordinal();
+        traceData[slot * 3 + 1] = a;
+        traceData[slot * 3 + 2] = b;
+        traceTimes[slot] = System.nanoTime();
+    }
+
+    /**
+     * Prints the retained trace events, oldest first. Events recorded concurrently with the dump may be torn.
+     */
+    public static void dumpTrace(PrintStream stream) {
+        if (!TRACE) {
+            stream.println("Tracing is disabled, run with -Dcobaltdb.trace=true");
+            return;
+        }
+        long end = traceCount.get();
+        long start = Math.max(0, end - TRACE_SIZE);
+        stream.println("Trace: " + (end - start) + " of " + end + " events");
+        for (long seq = start; seq < end; seq++) {
+            int slot = (int) (seq & (TRACE_SIZE - 1));
+            Event event = EVENTS[traceData[slot * 3]];
+            stream.println(traceTimes[slot] + " " + event + " " + event.a + "=" + traceData[slot * 3 + 1] +
+                    " " + event.b + "=" + traceData[slot * 3 + 2]);
+        }
+    }
+}
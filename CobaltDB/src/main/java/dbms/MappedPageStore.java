@@ -0,0 +1,165 @@
+package dbms;
+
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.util.Arrays;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.locks.ReentrantReadWriteLock;
+
+/**
+ * Memory-mapped page store.
+ * The file is mapped in fixed-size segments that are added as the table grows,
+ * and every page is a slice of its segment, so reads never copy page bytes.
+ * Dirty tracking is left to the OS; flush forces the mapped segments to disk.
+ *
+ * Pages never move, so latches only order access; they are kept in a map by page number.
+ * Mapped segments are published through a volatile array, so looking up a page takes no lock
+ * once its segment is mapped.
+ */
+public class MappedPageStore implements PageStore {
+    public static final int DEFAULT_SEGMENT_SIZE = 1 << 20;
+
+    private final RandomAccessFile file;
+    private final FileChannel channel;
+    private final int pageSize;
+    private final int pagesPerSegment;
+    private volatile MappedByteBuffer[] segments = new MappedByteBuffer[0];
+    private volatile ByteBuffer[][] pageSlices = new ByteBuffer[0][];
+    private final ConcurrentHashMap<Integer, ReentrantReadWriteLock> latches = new ConcurrentHashMap<>();
+    private volatile int highestPage = -1;
+
+    public MappedPageStore(RandomAccessFile file, int pageSize) {
+        this(file, pageSize, Math.max(1, DEFAULT_SEGMENT_SIZE / pageSize));
+    }
+
+    public MappedPageStore(RandomAccessFile file, int pageSize, int pagesPerSegment) {
+        if (pagesPerSegment < 1) {
+            throw new IllegalArgumentException("A segment must hold at least one page");
+        }
+        this.file = file;
+        this.channel = file.getChannel();
+        this.pageSize = pageSize;
+        this.pagesPerSegment = pagesPerSegment;
+    }
+
+    @Override
+    public ByteBuffer getPage(int pageNumber) throws IOException {
+        int segmentIndex = pageNumber / pagesPerSegment;
+        ByteBuffer[][] slices = pageSlices;
+        if (segmentIndex >= slices.length) {
+            slices = mapSegments(segmentIndex);
+        }
+        if (pageNumber > highestPage) {
+            raiseHighestPage(pageNumber);
+        }
+        return slices[segmentIndex][pageNumber % pagesPerSegment];
+    }
+
+    private synchronized void raiseHighestPage(int pageNumber) {
+        highestPage = Math.max(highestPage, pageNumber);
+    }
+
+    // Mapping past the end of the file grows it to the end of the segment
+    private synchronized ByteBuffer[][] mapSegments(int lastSegment) throws IOException {
+        if (segments.length == 0) {
+            // Pages already in the file count as used even if they are never touched, so close keeps them
+            highestPage = Math.max(highestPage, (int) (file.length() / pageSize) - 1);
+        }
+        int count = segments.length;
+        if (lastSegment < count) {
+            return pageSlices;
+        }
+        MappedByteBuffer[] mapped = Arrays.copyOf(segments, lastSegment + 1);
+        ByteBuffer[][] slices = Arrays.copyOf(pageSlices, lastSegment + 1);
+        long segmentSize = (long) pagesPerSegment * pageSize;
+        for (int i = count; i <= lastSegment; i++) {
+            mapped[i] = channel.map(FileChannel.MapMode.READ_WRITE, i * segmentSize, segmentSize);
+            slices[i] = new ByteBuffer[pagesPerSegment];
+            for (int slot = 0; slot < pagesPerSegment; slot++) {
+                ByteBuffer segment = mapped[i].duplicate();
+                segment.position(slot * pageSize).limit(slot * pageSize + pageSize);
+                slices[i][slot] = segment.slice();
+            }
+        }
+        segments = mapped;
+        pageSlices = slices;
+        return slices;
+    }
+
+    @Override
+    public void markDirty(int pageNumber) {
+        // Writes to a mapped slice already land in the OS page cache
+    }
+
+    @Override
+    public void latch(int pageNumber, boolean exclusive) {
+        ReentrantReadWriteLock latch = latches.computeIfAbsent(pageNumber, n -> new ReentrantReadWriteLock());
+        if (exclusive) {
+            latch.writeLock().lock();
+        } else {
+            latch.readLock().lock();
+        }
+    }
+
+    @Override
+    public void unlatch(int pageNumber, boolean exclusive) {
+        ReentrantReadWriteLock latch = latches.get(pageNumber);
+        if (exclusive) {
+            latch.writeLock().unlock();
+        } else {
+            latch.readLock().unlock();
+        }
+    }
+
+    @Override
+    public void flush() throws IOException {
+        for (MappedByteBuffer segment : segments) {
+            segment.force();
+        }
+    }
+
+    /**
+     * Mapped pages can reach the disk at any time, so there is no log to append to; a commit forces the mappings.
+     */
+    @Override
+    public long logCommit() throws IOException {
+        flush();
+        return 0;
+    }
+
+    @Override
+    public void awaitCommit(long position) {
+    }
+
+    @Override
+    public void setLogging(boolean enabled) {
+    }
+
+    /**
+     * Forces the mappings and trims the segment padding off the end of the file.
+     */
+    @Override
+    public synchronized void close() throws IOException {
+        flush();
+        long usedLength = (long) (highestPage + 1) * pageSize;
+        if (usedLength > 0 && file.length() > usedLength) {
+            file.setLength(usedLength);
+        }
+        segments = new MappedByteBuffer[0];
+        pageSlices = new ByteBuffer[0][];
+    }
+
+    @Override
+    public int getPageSize() {
+        return pageSize;
+    }
+
+    @Override
+    public String toString() {
+        return "MappedPageStore{segments=" + segments.length + ", pagesPerSegment=" + pagesPerSegment +
+                ", highestPage=" + highestPage + "}";
+    }
+}
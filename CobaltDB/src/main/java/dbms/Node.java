@@ -1,35 +1,37 @@
 package dbms;
 
 import java.io.IOException;
-import java.io.RandomAccessFile;
 
 public interface Node {
     boolean isLeaf();
     byte getPageType();
     int getPageNumber();
-    void setParent(int parentPageNum) throws IOException;
-    int getParent() throws IOException;
 }
 
 class LeafNode implements Node {
     private final int pageNum;
-    private final RandomAccessFile file;
+    private final PageStore pageStore;
     private Integer nextLeafPageNum;
     private final Page page;
     private final Schema schema;
 
-    public LeafNode(Schema schema, int pageNum, RandomAccessFile file) throws IOException {
+    public LeafNode(Schema schema, int pageNum, PageStore pageStore) throws IOException {
+        this(schema, pageNum, pageStore, true);
+    }
+
+    // With initialize == false the node wraps a leaf page that already exists on disk
+    LeafNode(Schema schema, int pageNum, PageStore pageStore, boolean initialize) throws IOException {
         if (schema == null) {
             throw new IllegalArgumentException("Schema cannot be null in LeafNode constructor");
         }
-        System.out.println("LeafNode constructor: Received schema: " + schema);
         this.pageNum = pageNum;
-        this.file = file;
+        this.pageStore = pageStore;
         this.schema = schema;
-        System.out.println("LeafNode constructor: Creating page with schema: " + this.schema);
-        this.page = new Page(this.schema, file, pageNum, getPageType());
+        this.page = new Page(this.schema, pageStore, pageNum, getPageType());
         this.nextLeafPageNum = null;
-        this.page.initialize();
+        if (initialize) {
+            this.page.initialize();
+        }
     }
 
     @Override
@@ -47,16 +49,6 @@ class LeafNode implements Node {
         return pageNum;
     }
 
-    @Override
-    public void setParent(int parentPageNum) throws IOException {
-        page.setParent(parentPageNum);
-    }
-
-    @Override
-    public int getParent() throws IOException {
-        return page.getParent();
-    }
-
     public Page getPage() {
         return page;
     }
@@ -70,21 +62,22 @@ class LeafNode implements Node {
     }
 }
 
+/**
+ * An interior node, backed directly by its 0x05 page.
+ * Child pointers are page numbers and nothing is cached in memory, so the node
+ * can hold as many keys as fit in a page.
+ */
 class InternalNode implements Node {
     private final int pageNum;
-    private final RandomAccessFile file;
-    private final int[] keys;
-    private final Node[] children;
-    private int numKeys;
-    private int parentPageNum;
+    private final Page page;
 
-    public InternalNode(int pageNum, RandomAccessFile file) {
+    // With initialize == false the node wraps an interior page that already exists on disk
+    InternalNode(Schema schema, int pageNum, PageStore pageStore, boolean initialize) throws IOException {
         this.pageNum = pageNum;
-        this.file = file;
-        this.keys = new int[4];        // Default order of 4
-        this.children = new Node[5];    // keys.length + 1
-        this.numKeys = 0;
-        this.parentPageNum = -1;
+        this.page = new Page(schema, pageStore, pageNum, getPageType());
+        if (initialize) {
+            this.page.initialize();
+        }
     }
 
     @Override
@@ -102,33 +95,56 @@ class InternalNode implements Node {
         return pageNum;
     }
 
-    @Override
-    public void setParent(int parentPageNum) throws IOException {
-        this.parentPageNum = parentPageNum;
-        // Write parent page number to disk
-        long offset = (long) pageNum * Page.PAGE_SIZE + 10; // Adjust offset based on header layout
-        file.seek(offset);
-        file.writeShort(parentPageNum);
+    public int getNumKeys() throws IOException {
+        return page.getRecordCount();
     }
 
-    @Override
-    public int getParent() throws IOException {
-        return parentPageNum;
+    public int getKey(int index) throws IOException {
+        return page.getKeyAt(index);
     }
 
-    public int[] getKeys() {
-        return keys;
+    public int getChild(int index) throws IOException {
+        return index < getNumKeys() ? page.getLeftChildAt(index) : page.getRightChild();
     }
 
-    public Node[] getChildren() {
-        return children;
+    /**
+     * @return the index of the child whose subtree holds rowId
+     */
+    public int findChildIndex(int rowId) throws IOException {
+        int position = page.findIndex(rowId);
+        // A separator key is the first rowId of its right child
+        if (position < getNumKeys() && getKey(position) == rowId) {
+            position++;
+        }
+        return position;
     }
 
-    public int getNumKeys() {
+    /**
+     * Copies the keys into keys[0..numKeys) and the children into children[0..numKeys].
+     */
+    public int readInto(int[] keys, int[] children) throws IOException {
+        int numKeys = getNumKeys();
+        for (int i = 0; i < numKeys; i++) {
+            keys[i] = page.getKeyAt(i);
+            children[i] = page.getLeftChildAt(i);
+        }
+        children[numKeys] = page.getRightChild();
         return numKeys;
     }
 
-    public void setNumKeys(int numKeys) {
-        this.numKeys = numKeys;
+    public void write(int[] keys, int[] children, int numKeys) throws IOException {
+        page.rewriteInterior(keys, children, numKeys);
     }
-}
\ No newline at end of file
+
+    /**
+     * Adds a key and its right child after the current last child.
+     */
+    public void append(int key, int rightChild) throws IOException {
+        page.writeInteriorCell(page.getRightChild(), key);
+        page.setRightChild(rightChild);
+    }
+
+    public void setOnlyChild(int child) throws IOException {
+        page.setRightChild(child);
+    }
+}
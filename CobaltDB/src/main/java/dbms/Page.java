@@ -1,249 +1,454 @@
 package dbms;
 
-import java.io.RandomAccessFile;
 import java.io.IOException;
-import java.util.Arrays;
+import java.nio.ByteBuffer;
 
 public class Page {
-    public static final int PAGE_SIZE = 512;
+    public static final int DEFAULT_PAGE_SIZE = 4096;
+    public static final int MIN_PAGE_SIZE = 512;
+    public static final int MAX_PAGE_SIZE = 65536;
     private static final int HEADER_SIZE = 16;
+    // Cell offsets are unsigned 16-bit: no cell can start at or past 65536, even in the largest page
     private static final int OFFSET_SIZE = 2;
-    private final Schema schema;
-    private final int RECORD_SIZE;  // Changed to final and initialized in constructor
-    private final int MAX_RECORDS;   // Changed to final and initialized in constructor
+    private static final int PAYLOAD_SIZE_BYTES = 2;
+    private static final int CHILD_POINTER_BYTES = 4;
+    private static final int INTERIOR_CELL_SIZE = CHILD_POINTER_BYTES + 4;  // left child + key
+
+    // Header layout (byte offsets within the page)
+    private static final int PAGE_TYPE = 0;
+    private static final int CELL_COUNT = 2;
+    private static final int CELL_CONTENT_START = 4;
+    private static final int RIGHT_SIBLING = 8;
+    // Held the parent page number; parent pointers would need every moved child latched during a split,
+    // so the slot is written as -1 and not read
+    private static final int RESERVED = 12;
+
+    // Copy of a leaf being split, kept per thread so splits do not allocate
+    private static final ThreadLocal<ByteBuffer> SPLIT_COPY = new ThreadLocal<>();
 
-    private final RandomAccessFile file;
+    private final Schema schema;
+    private final PageStore pageStore;
     private final int pageNumber;
     private final byte pageType;
-    private short recordCount;
-    private short cellContentStart;
-    private short rootPage;
-    private short rightSibling;
-    private short parentPage;
-    private final short[] cellOffsets;
-
-    public Page(Schema schema, RandomAccessFile file, int pageNumber, byte pageType) {
+    private final int pageSize;
+
+    public Page(Schema schema, PageStore pageStore, int pageNumber, byte pageType) {
         if (schema == null) {
             throw new IllegalArgumentException("Schema cannot be null in Page constructor");
         }
-        System.out.println("Page constructor: Received schema: " + schema);
         this.schema = schema;
-        this.file = file;
+        this.pageStore = pageStore;
         this.pageNumber = pageNumber;
         this.pageType = pageType;
-
-        // Initialize RECORD_SIZE and MAX_RECORDS
-        this.RECORD_SIZE = calculateRecordSize();
-        this.MAX_RECORDS = (PAGE_SIZE - HEADER_SIZE) / (this.RECORD_SIZE + OFFSET_SIZE);
-
-        this.cellOffsets = new short[MAX_RECORDS];
-        this.rightSibling = -1;
-        this.parentPage = -1;
+        this.pageSize = pageStore.getPageSize();
     }
 
-    private int calculateRecordSize() {
-        if (schema == null) {
-            throw new IllegalStateException("Schema is null when calculating record size");
+    public static void validatePageSize(int pageSize) {
+        if (pageSize < MIN_PAGE_SIZE || pageSize > MAX_PAGE_SIZE || Integer.bitCount(pageSize) != 1) {
+            throw new IllegalArgumentException("Page size must be a power of two between " + MIN_PAGE_SIZE +
+                    " and " + MAX_PAGE_SIZE + ": " + pageSize);
         }
-        int fieldSizes = schema.getFields().stream()
-                .mapToInt(field -> {
-                    switch (field.getType()) {
-                        case "string": return field.getLength();
-                        case "int": return 4;
-                        case "short": return 2;
-                        default: throw new IllegalArgumentException("Unsupported type: " + field.getType());
-                    }
-                }).sum();
+    }
+
+    public static byte readPageType(PageStore pageStore, int pageNumber) throws IOException {
+        return pageStore.getPage(pageNumber).get(PAGE_TYPE);
+    }
 
-        return 4 + fieldSizes + 1; // Row ID (4 bytes) + Field Data + Deletion Marker (1 byte)
+    // The buffer backing this page can be reused by the store, so it is looked up on every access
+    private ByteBuffer buffer() throws IOException {
+        return pageStore.getPage(pageNumber);
     }
 
     public void initialize() throws IOException {
-        file.seek(pageNumber * PAGE_SIZE);
+        ByteBuffer buf = buffer();
+        writeHeader(buf, -1);
+        pageStore.markDirty(pageNumber);
+    }
+
+    private void writeHeader(ByteBuffer buf, int rightSibling) {
+        buf.put(PAGE_TYPE, pageType);                // Page type (1 byte)
+        buf.put(PAGE_TYPE + 1, (byte) 0);            // Unused (1 byte)
+        buf.putShort(CELL_COUNT, (short) 0);         // Number of cells (2 bytes, unsigned)
+        buf.putInt(CELL_CONTENT_START, pageSize);    // Start of cell content (4 bytes)
+        buf.putInt(RIGHT_SIBLING, rightSibling);     // Right sibling/child (4 bytes)
+        buf.putInt(RESERVED, -1);                    // Reserved (4 bytes)
+    }
+
+    private static int getCellCount(ByteBuffer buf) {
+        return buf.getShort(CELL_COUNT) & 0xFFFF;
+    }
 
-        // Write header (16 bytes)
-        file.writeByte(pageType);        // Page type (1 byte)
-        file.writeByte(0);               // Unused (1 byte)
-        file.writeShort(0);              // Number of cells (2 bytes)
-        file.writeShort(PAGE_SIZE);      // Start of cell content (2 bytes)
-        file.writeShort(rootPage);       // Root page number (2 bytes)
-        file.writeShort(rightSibling);   // Right sibling/child (2 bytes)
-        file.writeShort(parentPage);     // Parent page (2 bytes)
-        file.writeInt(0);                // Unused (4 bytes)
+    /**
+     * @return how many keys fit in an interior page of the given size
+     */
+    public static int maxInteriorKeys(int pageSize) {
+        return (pageSize - HEADER_SIZE) / (OFFSET_SIZE + INTERIOR_CELL_SIZE);
+    }
+
+    /**
+     * @return the size of a leaf cell holding a serialized record of the given length
+     */
+    public static int leafCellSize(int recordLength) {
+        return PAYLOAD_SIZE_BYTES + recordLength;
+    }
 
-        recordCount = 0;
-        cellContentStart = (short) PAGE_SIZE;
+    /**
+     * @return the longest serialized record a leaf of the given size takes. Capping every cell at half the
+     * usable space guarantees that splitInto finds a point where both halves fit.
+     */
+    public static int maxRecordLength(int pageSize) {
+        return (pageSize - HEADER_SIZE) / 2 - OFFSET_SIZE - PAYLOAD_SIZE_BYTES;
     }
 
-    public boolean hasSpace(int recordSize) {
-        int neededSpace = recordSize + 2;  // record + offset entry
-        int availableSpace = cellContentStart - (HEADER_SIZE + recordCount * 2);
+    public boolean hasSpace(int recordSize) throws IOException {
+        ByteBuffer buf = buffer();
+        int neededSpace = recordSize + OFFSET_SIZE;  // record + offset entry
+        int availableSpace = buf.getInt(CELL_CONTENT_START) - (HEADER_SIZE + getCellCount(buf) * OFFSET_SIZE);
         return availableSpace >= neededSpace;
     }
 
+    /**
+     * Checks whether a record fits without filling the page past the given fraction of its usable space.
+     * Used by the bulk loader to leave room for later inserts.
+     */
+    public boolean hasSpace(int recordSize, double fillFactor) throws IOException {
+        ByteBuffer buf = buffer();
+        int usedSpace = (pageSize - buf.getInt(CELL_CONTENT_START)) + getCellCount(buf) * OFFSET_SIZE;
+        int fillLimit = (int) ((pageSize - HEADER_SIZE) * fillFactor);
+        return usedSpace + recordSize + OFFSET_SIZE <= fillLimit && hasSpace(recordSize);
+    }
+
     public boolean addRecord(Record record) throws IOException {
-        System.out.println("Serialized record: " + Arrays.toString(record.serialize()));
-        byte[] recordData = record.serialize();
-        if (!hasSpace(recordData.length + 6)) { // +6 for payload size(2) + rowId(4)
+        return addRecord(record.getRowId(), record.serialize());
+    }
+
+    /**
+     * Adds an already serialized record, so callers that sized it first do not serialize it twice.
+     */
+    public boolean addRecord(int rowId, byte[] recordData) throws IOException {
+        if (!hasSpace(leafCellSize(recordData.length))) {
             return false;
         }
 
-        cellContentStart = (short) (cellContentStart - recordData.length - 6);
-        file.seek(pageNumber * PAGE_SIZE + cellContentStart);
-        file.writeByte(recordData.length);    // Write payload size
-        file.write(recordData);               // Write actual record data
-
+        ByteBuffer buf = buffer();
         // Add cell offset to array (maintained in sorted order by rowId)
-        int insertPos = 0;
-        while (insertPos < recordCount && getCellRowId(cellOffsets[insertPos]) < record.getRowId()) {
-            insertPos++;
-        }
+        int insertPos = lowerBound(buf, getCellCount(buf), rowId);
+        writeCell(buf, insertPos, recordData, 0, recordData.length);
+        pageStore.markDirty(pageNumber);
+        return true;
+    }
+
+    // Writes a leaf cell below the cell content and puts its offset at index, shifting the offsets after it
+    private static void writeCell(ByteBuffer buf, int index, byte[] source, int sourceOffset, int length) {
+        int recordCount = getCellCount(buf);
+        int cellContentStart = buf.getInt(CELL_CONTENT_START) - leafCellSize(length);
+        buf.putShort(cellContentStart, (short) length); // Write payload size
+        putBytes(buf, cellContentStart + PAYLOAD_SIZE_BYTES, source, sourceOffset, length); // Write actual record data
 
         // Shift existing offsets
-        System.arraycopy(cellOffsets, insertPos,
-                cellOffsets, insertPos + 1,
-                recordCount - insertPos);
+        for (int i = recordCount - 1; i >= index; i--) {
+            setCellOffset(buf, i + 1, getCellOffset(buf, i));
+        }
+        setCellOffset(buf, index, cellContentStart);
 
-        // Insert new offset
-        cellOffsets[insertPos] = cellContentStart;
+        buf.putShort(CELL_COUNT, (short) (recordCount + 1));
+        buf.putInt(CELL_CONTENT_START, cellContentStart);
+    }
 
-        recordCount++;
-        updateHeader();
-        return true;
+    // Heap pages are copied with arraycopy; only mapped pages need a duplicate to position
+    private static void putBytes(ByteBuffer buf, int position, byte[] source, int offset, int length) {
+        if (buf.hasArray()) {
+            System.arraycopy(source, offset, buf.array(), buf.arrayOffset() + position, length);
+        } else {
+            buf.duplicate().position(position).put(source, offset, length);
+        }
     }
 
-    private int getCellRowId(short offset) throws IOException {
-        file.seek(pageNumber * PAGE_SIZE + offset);
+    private static void getBytes(ByteBuffer buf, int position, byte[] target, int offset, int length) {
+        if (buf.hasArray()) {
+            System.arraycopy(buf.array(), buf.arrayOffset() + position, target, offset, length);
+        } else {
+            buf.duplicate().position(position).get(target, offset, length);
+        }
+    }
+
+    /**
+     * Splits a full leaf around a new record: the lower records, new one included, stay here and the upper
+     * ones move to right, which must be empty. The split point balances the bytes of the two halves rather
+     * than their record counts, as records vary in length. Cells are copied as bytes without being decoded.
+     *
+     * @return the lowest rowId now in right
+     */
+    public int splitInto(Page right, int rowId, byte[] recordData) throws IOException {
+        ByteBuffer copy = SPLIT_COPY.get();
+        if (copy == null || copy.capacity() < pageSize) {
+            copy = ByteBuffer.allocate(pageSize);
+            SPLIT_COPY.set(copy);
+        }
+        ByteBuffer buf = buffer();
+        int recordCount = getCellCount(buf);
+        int insertPos = lowerBound(buf, recordCount, rowId);
+        getBytes(buf, 0, copy.array(), 0, pageSize);
+
+        int total = recordCount + 1;
+        int totalBytes = 0;
+        for (int i = 0; i < total; i++) {
+            totalBytes += splitCellBytes(copy, i, insertPos, recordData);
+        }
+        // The first record of the right half is the one after which the larger half is smallest
+        int splitPoint = 1;
+        int leftBytes = splitCellBytes(copy, 0, insertPos, recordData);
+        int largerHalf = Math.max(leftBytes, totalBytes - leftBytes);
+        for (int i = 1, bytes = leftBytes; i < total - 1; i++) {
+            bytes += splitCellBytes(copy, i, insertPos, recordData);
+            if (Math.max(bytes, totalBytes - bytes) < largerHalf) {
+                largerHalf = Math.max(bytes, totalBytes - bytes);
+                splitPoint = i + 1;
+            }
+        }
+        if (largerHalf > pageSize - HEADER_SIZE) {
+            throw new IllegalStateException("Page " + pageNumber + " cannot be split into two pages: " +
+                    largerHalf + " bytes of cells on one side");
+        }
+        clear();
+
+        ByteBuffer rightBuf = right.buffer();
+        int splitKey = rowId;
+        for (int i = 0; i < total; i++) {
+            ByteBuffer target = i < splitPoint ? buf : rightBuf;
+            if (i == insertPos) {
+                writeCell(target, getCellCount(target), recordData, 0, recordData.length);
+                continue;
+            }
+            int offset = getCellOffset(copy, i < insertPos ? i : i - 1);
+            writeCell(target, getCellCount(target), copy.array(), offset + PAYLOAD_SIZE_BYTES,
+                    copy.getShort(offset) & 0xFFFF);
+            if (i == splitPoint) {
+                splitKey = copy.getInt(offset + PAYLOAD_SIZE_BYTES);
+            }
+        }
+        pageStore.markDirty(pageNumber);
+        pageStore.markDirty(right.pageNumber);
+        return splitKey;
+    }
+
+    // Bytes the i-th record of a split takes in a page, offset included; the new record sits at insertPos
+    private static int splitCellBytes(ByteBuffer copy, int i, int insertPos, byte[] recordData) {
+        int length = i == insertPos
+                ? recordData.length
+                : copy.getShort(getCellOffset(copy, i < insertPos ? i : i - 1)) & 0xFFFF;
+        return leafCellSize(length) + OFFSET_SIZE;
+    }
+
+    private static int getCellOffset(ByteBuffer buf, int index) {
+        return buf.getShort(HEADER_SIZE + index * OFFSET_SIZE) & 0xFFFF;
+    }
+
+    private static void setCellOffset(ByteBuffer buf, int index, int offset) {
+        buf.putShort(HEADER_SIZE + index * OFFSET_SIZE, (short) offset);
+    }
+
+    private int getCellRowId(ByteBuffer buf, int offset) {
         if (pageType == 0x0d) {  // Table Leaf
-            file.skipBytes(1);    // Skip payload size
-            return file.readInt();     // Read rowId
+            return buf.getInt(offset + PAYLOAD_SIZE_BYTES);     // Skip payload size, read rowId
         } else if (pageType == 0x05) {  // Table Interior
-            file.skipBytes(2);    // Skip left child pointer
-            return file.readInt();     // Read rowId
+            return buf.getInt(offset + CHILD_POINTER_BYTES);    // Skip left child pointer, read rowId
         } else {
             throw new IllegalStateException("Invalid page type: " + pageType);
         }
     }
 
-    private boolean updateHeader() throws IOException {
-        file.seek(pageNumber * PAGE_SIZE);
+    /**
+     * Binary-searches the sorted cell offset array for the first cell whose rowId is not less than rowId.
+     */
+    private int lowerBound(ByteBuffer buf, int recordCount, int rowId) {
+        int low = 0;
+        int high = recordCount;
+        while (low < high) {
+            int mid = (low + high) >>> 1;
+            if (getCellRowId(buf, getCellOffset(buf, mid)) < rowId) {
+                low = mid + 1;
+            } else {
+                high = mid;
+            }
+        }
+        return low;
+    }
 
-        file.writeByte(pageType);
-        file.writeByte(0);
-        file.writeShort(recordCount);
-        file.writeShort(cellContentStart);
-        file.writeShort(rootPage);
-        file.writeShort(rightSibling);
-        file.writeShort(parentPage);
-        file.writeInt(0);
+    /**
+     * Looks up a single record by rowId, decoding only the matching cell.
+     *
+     * @return the record, or null if this page holds no record with that rowId
+     */
+    public Record getRecord(int rowId) throws IOException {
+        return getRecord(rowId, Projection.all(schema));
+    }
 
-        // Write cell offsets array
-        long offsetPos = pageNumber * PAGE_SIZE + HEADER_SIZE;
-        for (int i = 0; i < recordCount; i++) {
-            file.seek(offsetPos);
-            file.writeShort(cellOffsets[i]);
-            offsetPos += 2;
+    /**
+     * Looks up a single record by rowId, decoding only the projected fields of the matching cell.
+     *
+     * @return the record, or null if this page holds no record with that rowId
+     */
+    public Record getRecord(int rowId, Projection projection) throws IOException {
+        ByteBuffer buf = buffer();
+        int recordCount = getCellCount(buf);
+        int index = lowerBound(buf, recordCount, rowId);
+        if (index == recordCount) {
+            return null;
         }
-        return true;
+        int offset = getCellOffset(buf, index);
+        if (getCellRowId(buf, offset) != rowId) {
+            return null;
+        }
+        return projection.decode(buf, offset + PAYLOAD_SIZE_BYTES);
     }
 
-    public Record[] getAllRecords() throws IOException {
-        Record[] records = new Record[recordCount];
+    public int getRecordCount() throws IOException {
+        return getCellCount(buffer());
+    }
 
-        // First read cell offsets from header area
-        file.seek(pageNumber * PAGE_SIZE + HEADER_SIZE);
-        short[] offsets = new short[recordCount];
-        for (int i = 0; i < recordCount; i++) {
-            offsets[i] = file.readShort();
-        }
+    /**
+     * @return the index of the first cell whose rowId is not less than rowId, or the record count if there is none
+     */
+    public int findIndex(int rowId) throws IOException {
+        ByteBuffer buf = buffer();
+        return lowerBound(buf, getCellCount(buf), rowId);
+    }
 
-        // Now read records using these offsets
-        for (int i = 0; i < recordCount; i++) {
-            file.seek(pageNumber * PAGE_SIZE + offsets[i]);
+    public int getRowIdAt(int index) throws IOException {
+        ByteBuffer buf = buffer();
+        return getCellRowId(buf, getCellOffset(buf, index));
+    }
+
+    public Record getRecordAt(int index) throws IOException {
+        ByteBuffer buf = buffer();
+        return schema.getCodec().decode(buf, getCellOffset(buf, index) + PAYLOAD_SIZE_BYTES);
+    }
 
-            byte payloadSize = file.readByte();
-            int rowId = file.readInt();
+    /**
+     * Points view at the record in the given cell, reading it in place. The view is valid while the page
+     * stays latched.
+     */
+    public RecordView viewAt(int index, RecordView view) throws IOException {
+        ByteBuffer buf = buffer();
+        return view.wrap(buf, getCellOffset(buf, index) + PAYLOAD_SIZE_BYTES);
+    }
+
+    /**
+     * @return the serialized length of the record in the given cell, rowId included
+     */
+    public int getRecordSizeAt(int index) throws IOException {
+        ByteBuffer buf = buffer();
+        return buf.getShort(getCellOffset(buf, index)) & 0xFFFF;
+    }
 
-            byte[] recordData = new byte[payloadSize];
-            file.read(recordData);
+    /**
+     * Copies the serialized record in the given cell to target, so it can be read after the latch is released.
+     *
+     * @return the number of bytes copied
+     */
+    public int copyRecordAt(int index, byte[] target, int targetOffset) throws IOException {
+        ByteBuffer buf = buffer();
+        int offset = getCellOffset(buf, index);
+        int length = buf.getShort(offset) & 0xFFFF;
+        getBytes(buf, offset + PAYLOAD_SIZE_BYTES, target, targetOffset, length);
+        return length;
+    }
 
-            records[i] = Record.deserialize(schema, recordData, rowId);
+    public Record[] getAllRecords() throws IOException {
+        ByteBuffer buf = buffer();
+        int recordCount = getCellCount(buf);
+        Record[] records = new Record[recordCount];
+        RecordCodec codec = schema.getCodec();
+
+        for (int i = 0; i < recordCount; i++) {
+            records[i] = codec.decode(buf, getCellOffset(buf, i) + PAYLOAD_SIZE_BYTES);
         }
 
         return records;
     }
 
     public void clear() throws IOException {
-        file.seek(pageNumber * PAGE_SIZE);
-
-        // Reinitialize header
-        file.writeByte(pageType);
-        file.writeByte(0);
-        file.writeShort(0);                // record count
-        file.writeShort(PAGE_SIZE);        // cell content start
-        file.writeShort(rootPage);
-        file.writeShort(rightSibling);
-        file.writeShort(parentPage);
-        file.writeInt(0);
+        ByteBuffer buf = buffer();
+        int rightSibling = buf.getInt(RIGHT_SIBLING);
 
-        // Reset page state in memory
-        recordCount = 0;
-        cellContentStart = (short) PAGE_SIZE;
-        for (int i = 0; i < cellOffsets.length; i++) {
-            cellOffsets[i] = 0;
+        // Clear the offset array and content area, then reinitialize header
+        for (int i = HEADER_SIZE; i < pageSize; i++) {
+            buf.put(i, (byte) 0);
         }
+        writeHeader(buf, rightSibling);
+        pageStore.markDirty(pageNumber);
+    }
 
-        // Explicitly clear the cell offset array area in file
-        file.seek(pageNumber * PAGE_SIZE + HEADER_SIZE);
-        for (int i = 0; i < MAX_RECORDS; i++) {
-            file.writeShort(0);
+    public void setRightSibling(int sibling) throws IOException {
+        if (Log.isDebugEnabled()) {
+            Log.debug("Setting right sibling of page " + pageNumber + " to " + sibling);
         }
+        buffer().putInt(RIGHT_SIBLING, sibling);
+        pageStore.markDirty(pageNumber);
+    }
 
-        // Clear the content area
-        file.seek(pageNumber * PAGE_SIZE + HEADER_SIZE + (MAX_RECORDS * 2));
-        byte[] emptyContent = new byte[PAGE_SIZE - HEADER_SIZE - (MAX_RECORDS * 2)];
-        file.write(emptyContent);
+    public Integer getRightSibling() throws IOException {
+        int rightSibling = buffer().getInt(RIGHT_SIBLING);
+        return rightSibling == -1 ? null : rightSibling;
     }
 
-    public int getParent() {
-        return parentPage;
+    public void setRightChild(int child) throws IOException {
+        if (Log.isDebugEnabled()) {
+            Log.debug("Setting right child of interior page " + pageNumber + " to " + child);
+        }
+        buffer().putInt(RIGHT_SIBLING, child);  // Uses same header location as rightSibling
+        pageStore.markDirty(pageNumber);
     }
 
-    public void setParent(int parent) throws IOException {
-        this.parentPage = (short) parent;
-        updateHeader();
+    public int getRightChild() throws IOException {
+        return buffer().getInt(RIGHT_SIBLING);
     }
 
-    public void setRightSibling(int sibling) throws IOException {
-        System.out.println("Setting right sibling of page " + pageNumber + " to " + sibling);
-        this.rightSibling = (short) sibling;
-        updateHeader();
+    public int getLeftChildAt(int index) throws IOException {
+        ByteBuffer buf = buffer();
+        return buf.getInt(getCellOffset(buf, index));
     }
 
-    public Integer getRightSibling() {
-        return rightSibling == -1 ? null : (int) rightSibling;
+    public int getKeyAt(int index) throws IOException {
+        return getRowIdAt(index);
     }
 
-    public void setRightChild(int child) throws IOException {
-        System.out.println("Setting right child of interior page " + pageNumber + " to " + child);
-        this.rightSibling = (short) child;  // Uses same header location as rightSibling
-        updateHeader();
+    /**
+     * Replaces all cells of an interior page in one pass, leaving its reserved header slot as it is.
+     * children holds numKeys + 1 page numbers; the last one becomes the right child.
+     */
+    public void rewriteInterior(int[] keys, int[] children, int numKeys) throws IOException {
+        ByteBuffer buf = buffer();
+        int cellContentStart = pageSize;
+        for (int i = 0; i < numKeys; i++) {
+            cellContentStart -= INTERIOR_CELL_SIZE;
+            buf.putInt(cellContentStart, children[i]);
+            buf.putInt(cellContentStart + CHILD_POINTER_BYTES, keys[i]);
+            setCellOffset(buf, i, cellContentStart);
+        }
+        buf.put(PAGE_TYPE, pageType);
+        buf.putShort(CELL_COUNT, (short) numKeys);
+        buf.putInt(CELL_CONTENT_START, cellContentStart);
+        buf.putInt(RIGHT_SIBLING, children[numKeys]);
+        pageStore.markDirty(pageNumber);
     }
 
     public void writeInteriorCell(int leftChild, int key) throws IOException {
-        // Calculate cell content start position
-        cellContentStart = (short)(cellContentStart - 6);  // 2 bytes for child + 4 bytes for key
+        ByteBuffer buf = buffer();
+        int recordCount = getCellCount(buf);
 
-        // Add cell offset to header array
-        cellOffsets[recordCount] = cellContentStart;
-        recordCount++;
+        // Calculate cell content start position
+        int cellContentStart = buf.getInt(CELL_CONTENT_START) - INTERIOR_CELL_SIZE;
 
         // Write cell content
-        file.seek(pageNumber * PAGE_SIZE + cellContentStart);
-        file.writeShort(leftChild);  // Left child pointer
-        file.writeInt(key);          // Key value
+        buf.putInt(cellContentStart, leftChild);                  // Left child pointer
+        buf.putInt(cellContentStart + CHILD_POINTER_BYTES, key);  // Key value
 
-        // Update header
-        updateHeader();
+        // Add cell offset to header array
+        setCellOffset(buf, recordCount, cellContentStart);
+        buf.putShort(CELL_COUNT, (short) (recordCount + 1));
+        buf.putInt(CELL_CONTENT_START, cellContentStart);
+        pageStore.markDirty(pageNumber);
     }
-}
\ No newline at end of file
+}
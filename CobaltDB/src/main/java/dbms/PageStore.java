@@ -0,0 +1,60 @@
+package dbms;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+
+/**
+ * Gives pages access to the bytes of a table file, one page at a time.
+ * Implementations decide how pages are cached and when they reach the disk.
+ *
+ * Stores are safe to share between threads. A thread that holds a page's latch may use the page's
+ * buffer until it releases the latch; without a latch the buffer is only valid until the next call
+ * to getPage and only while no other thread uses the store.
+ */
+public interface PageStore {
+    /**
+     * Returns a buffer covering exactly one page, indexed from 0.
+     */
+    ByteBuffer getPage(int pageNumber) throws IOException;
+
+    void markDirty(int pageNumber);
+
+    /**
+     * Keeps the page in memory and takes its latch, shared for readers or exclusive for writers.
+     * Latches are not reentrant across modes, and a thread holding several takes them parent before
+     * child and left before right.
+     */
+    void latch(int pageNumber, boolean exclusive) throws IOException;
+
+    void unlatch(int pageNumber, boolean exclusive);
+
+    /**
+     * Writes every modified page back to the file. Stores with a write-ahead log also force the file
+     * and empty the log (a checkpoint). No page may be in the middle of a change.
+     */
+    void flush() throws IOException;
+
+    /**
+     * Logs every change since the previous commit. No page may be in the middle of a change; the
+     * caller waits for durability separately with {@link #awaitCommit}, so that other work can go on.
+     *
+     * @return the position to pass to awaitCommit
+     */
+    long logCommit() throws IOException;
+
+    /**
+     * Blocks until the commit logged at the given position is durable. Concurrent callers share one
+     * force of the log.
+     */
+    void awaitCommit(long position) throws IOException;
+
+    /**
+     * Turns logging of page changes off for bulk work that is made durable by a flush at its end instead.
+     * Both directions flush first. Stores without a log ignore this.
+     */
+    void setLogging(boolean enabled) throws IOException;
+
+    void close() throws IOException;
+
+    int getPageSize();
+}
@@ -0,0 +1,135 @@
+package dbms;
+
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Set;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.RecursiveTask;
+import java.util.function.BiConsumer;
+import java.util.function.BinaryOperator;
+import java.util.function.Supplier;
+
+/**
+ * Scans a whole table on a ForkJoin pool. The rowId space is cut into ranges at separator keys of the
+ * B+tree's interior levels (see BPlusTree.splitKeys), and each range is read by its own ScanOperator,
+ * with a cursor and batch of its own, on whichever worker takes it. Conditions are applied and rows
+ * aggregated within each range; only the per-range results are merged, in rowId order.
+ *
+ * Pages are latched shared and read with positional I/O, so the ranges share nothing but the page store.
+ */
+public class ParallelScan {
+    private final Table table;
+    private final Projection projection;
+    private final List<Condition> conditions;
+    private final ForkJoinPool pool;
+    private final int partitions;
+
+    /**
+     * Scans on the common pool, in four ranges per worker so that uneven ranges even out.
+     */
+    public ParallelScan(Table table, Projection projection, List<Condition> conditions) {
+        this(table, projection, conditions, ForkJoinPool.commonPool(),
+                ForkJoinPool.commonPool().getParallelism() * 4);
+    }
+
+    /**
+     * @param projection the columns the accumulator reads; conditions may use others, which are added
+     */
+    public ParallelScan(Table table, Projection projection, List<Condition> conditions, ForkJoinPool pool,
+                        int partitions) {
+        this.table = table;
+        this.projection = projection;
+        this.conditions = conditions;
+        this.pool = pool;
+        this.partitions = partitions;
+    }
+
+    /**
+     * Folds the batches of each range into a container from initial, then combines the containers of
+     * neighbouring ranges, left one first, until one is left.
+     */
+    public <A> A aggregate(Supplier<A> initial, BiConsumer<A, RowBatch> accumulator, BinaryOperator<A> combiner)
+            throws IOException {
+        int[] keys = table.splitKeys(partitions);
+        try {
+            return pool.invoke(new RangeTask<>(keys, 0, keys.length + 1, initial, accumulator, combiner));
+        } catch (UncheckedIOException e) {
+            throw e.getCause();
+        }
+    }
+
+    /**
+     * @return the number of rows satisfying every condition
+     */
+    public long count() throws IOException {
+        return aggregate(() -> new long[1], (total, batch) -> total[0] += batch.size(), (a, b) -> {
+            a[0] += b[0];
+            return a;
+        })[0];
+    }
+
+    private BatchOperator plan(int fromRowId, int toRowId) throws IOException {
+        Projection scanned = projection;
+        if (!conditions.isEmpty() && !projection.isAll()) {
+            Set<String> used = new LinkedHashSet<>();
+            RecordCodec codec = projection.getSchema().getCodec();
+            for (int field : projection.getFields()) {
+                used.add(codec.getName(field));
+            }
+            for (Condition condition : conditions) {
+                used.add(condition.getColumn());
+            }
+            scanned = table.project(used.toArray(new String[0]));
+        }
+        BatchOperator operator = new ScanOperator(table, scanned, fromRowId, toRowId, RowBatch.DEFAULT_CAPACITY);
+        return conditions.isEmpty() ? operator : new FilterOperator(operator, conditions, scanned.getSchema());
+    }
+
+    // Scans ranges [from, to) of the ranges cut at keys, splitting them in halves across the pool
+    private class RangeTask<A> extends RecursiveTask<A> {
+        private static final long serialVersionUID = 1L;
+
+        private final int[] keys;
+        private final int from;
+        private final int to;
+        private final Supplier<A> initial;
+        private final BiConsumer<A, RowBatch> accumulator;
+        private final BinaryOperator<A> combiner;
+
+        RangeTask(int[] keys, int from, int to, Supplier<A> initial, BiConsumer<A, RowBatch> accumulator,
+                  BinaryOperator<A> combiner) {
+            this.keys = keys;
+            this.from = from;
+            this.to = to;
+            this.initial = initial;
+            this.accumulator = accumulator;
+            this.combiner = combiner;
+        }
+
+        @Override
+        protected A compute() {
+            if (to - from > 1) {
+                int mid = (from + to) >>> 1;
+                RangeTask<A> right = new RangeTask<>(keys, mid, to, initial, accumulator, combiner);
+                right.fork();
+                A left = new RangeTask<>(keys, from, mid, initial, accumulator, combiner).compute();
+                return combiner.apply(left, right.join());
+            }
+            int fromRowId = from == 0 ? Integer.MIN_VALUE : keys[from - 1];
+            int toRowId = from == keys.length ? Integer.MAX_VALUE : keys[from] - 1;
+            A result = initial.get();
+            try {
+                BatchOperator operator = plan(fromRowId, toRowId);
+                RowBatch batch;
+                while ((batch = operator.next()) != null) {
+                    accumulator.accept(result, batch);
+                }
+            } catch (IOException e) {
+                throw new UncheckedIOException(e);
+            }
+            return result;
+        }
+    }
+}
@@ -0,0 +1,227 @@
+package dbms;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * Inserts rows into a table in batches, set up like a JDBC PreparedStatement: values are set with typed
+ * setters on columns numbered from 1 in schema order, and stay set until set again. addBatch serializes the
+ * row straight from the set values, without a Record or a map of boxed values. executeBatch gives the rows
+ * consecutive rowIds, inserts them with Table.insertBatch, which descends the tree once per leaf rather than
+ * once per row, and commits them together.
+ *
+ * Not thread-safe; use one per thread.
+ */
+public class PreparedInsert {
+    private final Table table;
+    private final RecordCodec codec;
+    private final long[] longs;
+    private final double[] doubles;
+    private final String[] texts;
+    private final boolean[] set;
+    private final Row row = new Row();
+    private final List<byte[]> batch = new ArrayList<>();
+
+    PreparedInsert(Table table, RecordCodec codec) {
+        this.table = table;
+        this.codec = codec;
+        int fields = codec.getFieldCount();
+        this.longs = new long[fields];
+        this.doubles = new double[fields];
+        this.texts = new String[fields];
+        this.set = new boolean[fields];
+        for (int i = 0; i < fields; i++) {
+            // A NULL column stores nothing, so it needs no value
+            set[i] = ColumnVector.kindOf(codec.getType(i)) == ColumnVector.Kind.NULL;
+        }
+    }
+
+    public void setInt(int column, int value) {
+        setLong(column, value);
+    }
+
+    /**
+     * Sets an integer column, checking that the value fits its type, or a FLOAT or DOUBLE column.
+     */
+    public void setLong(int column, long value) {
+        int field = field(column);
+        switch (ColumnVector.kindOf(codec.getType(field))) {
+            case INT:
+            case LONG:
+                checkRange(field, value);
+                longs[field] = value;
+                break;
+            case DOUBLE:
+                doubles[field] = value;
+                break;
+            case NULL:
+                break;
+            default:
+                throw mismatch(field, "an integer");
+        }
+        set[field] = true;
+    }
+
+    public void setDouble(int column, double value) {
+        int field = field(column);
+        switch (ColumnVector.kindOf(codec.getType(field))) {
+            case DOUBLE:
+                doubles[field] = value;
+                break;
+            case NULL:
+                break;
+            default:
+                throw mismatch(field, "a floating-point number");
+        }
+        set[field] = true;
+    }
+
+    /**
+     * Sets a TEXT column, or any other column to the value parsed from text as INSERT INTO parses it.
+     *
+     * @throws IllegalArgumentException if value is null or cannot be parsed for the column
+     */
+    public void setString(int column, String value) {
+        int field = field(column);
+        if (value == null) {
+            throw new IllegalArgumentException("Null value for column " + codec.getName(field));
+        }
+        ColumnType type = codec.getType(field);
+        switch (ColumnVector.kindOf(type)) {
+            case TEXT:
+                texts[field] = value;
+                break;
+            case INT:
+            case LONG:
+                long number = ((Number) type.parseValue(value)).longValue();
+                checkRange(field, number);
+                longs[field] = number;
+                break;
+            case DOUBLE:
+                doubles[field] = ((Number) type.parseValue(value)).doubleValue();
+                break;
+            default:
+                break;
+        }
+        set[field] = true;
+    }
+
+    /**
+     * Adds a row with the values set so far to the batch.
+     *
+     * @throws IllegalStateException if a column has not been set
+     */
+    public void addBatch() {
+        for (int i = 0; i < set.length; i++) {
+            if (!set[i]) {
+                throw new IllegalStateException("No value set for column " + codec.getName(i));
+            }
+        }
+        // The rowId is only assigned when the batch is executed
+        batch.add(codec.encode(0, row, (byte) 0));
+    }
+
+    public int getBatchSize() {
+        return batch.size();
+    }
+
+    public void clearBatch() {
+        batch.clear();
+    }
+
+    /**
+     * Inserts and commits the rows of the batch, which is then empty again, even if the insert failed.
+     *
+     * @return the number of rows inserted
+     */
+    public int executeBatch() throws IOException {
+        int count = batch.size();
+        if (count == 0) {
+            return 0;
+        }
+        try {
+            int firstRowId = table.assignRowIds(count);
+            for (int i = 0; i < count; i++) {
+                RecordCodec.setRowId(batch.get(i), firstRowId + i);
+            }
+            table.insertBatch(batch);
+            table.commit();
+        } finally {
+            batch.clear();
+        }
+        if (Log.isDebugEnabled()) {
+            Log.debug("Inserted a batch of " + count + " rows");
+        }
+        return count;
+    }
+
+    private int field(int column) {
+        if (column < 1 || column > set.length) {
+            throw new IllegalArgumentException("Column index out of range: " + column);
+        }
+        return column - 1;
+    }
+
+    private void checkRange(int field, long value) {
+        long min;
+        long max;
+        switch (codec.getType(field).getDataType()) {
+            case TINYINT:
+                min = Byte.MIN_VALUE;
+                max = Byte.MAX_VALUE;
+                break;
+            case SMALLINT:
+                min = Short.MIN_VALUE;
+                max = Short.MAX_VALUE;
+                break;
+            case YEAR:
+                min = ColumnType.MIN_YEAR;
+                max = ColumnType.MAX_YEAR;
+                break;
+            case INT:
+            case TIME:
+                min = Integer.MIN_VALUE;
+                max = Integer.MAX_VALUE;
+                break;
+            default:
+                return;
+        }
+        if (value < min || value > max) {
+            throw new IllegalArgumentException("Value out of range for column " + codec.getName(field) + ": " + value);
+        }
+    }
+
+    private IllegalArgumentException mismatch(int field, String value) {
+        return new IllegalArgumentException("Column " + codec.getName(field) + " of type " + codec.getType(field) +
+                " cannot take " + value);
+    }
+
+    // The set values, as the codec reads them
+    private class Row implements RecordCodec.FieldSource {
+        @Override
+        public long getLong(int field, ColumnType type) {
+            return longs[field];
+        }
+
+        @Override
+        public double getDouble(int field, ColumnType type) {
+            return doubles[field];
+        }
+
+        @Override
+        public int getTextLength(int field, int max) {
+            return Math.min(texts[field].length(), max);
+        }
+
+        @Override
+        public void copyText(int field, ByteBuffer target, int position, int length) {
+            String text = texts[field];
+            for (int i = 0; i < length; i++) {
+                char c = text.charAt(i);
+                target.put(position + i, c < 0x80 ? (byte) c : (byte) '?');
+            }
+        }
+    }
+}
@@ -0,0 +1,54 @@
+package dbms;
+
+import java.io.IOException;
+
+/**
+ * Narrows the batches of its child to some of their columns, sharing the child's vectors.
+ */
+public class ProjectOperator implements BatchOperator {
+    private final BatchOperator child;
+    private final String[] columns;
+    private final int[] indexes;
+    private RowBatch source;
+    private RowBatch projected;
+
+    /**
+     * @throws IllegalArgumentException if the child does not produce one of the columns
+     */
+    public ProjectOperator(BatchOperator child, String... columns) {
+        this.child = child;
+        this.columns = columns.clone();
+        this.indexes = new int[columns.length];
+        String[] available = child.getColumns();
+        for (int i = 0; i < columns.length; i++) {
+            indexes[i] = -1;
+            for (int j = 0; j < available.length; j++) {
+                if (available[j].equals(columns[i])) {
+                    indexes[i] = j;
+                }
+            }
+            if (indexes[i] < 0) {
+                throw new IllegalArgumentException("Column not found: " + columns[i]);
+            }
+        }
+    }
+
+    @Override
+    public String[] getColumns() {
+        return columns.clone();
+    }
+
+    @Override
+    public RowBatch next() throws IOException {
+        RowBatch batch = child.next();
+        if (batch == null) {
+            return null;
+        }
+        if (batch != source) {
+            source = batch;
+            projected = batch.project(indexes);
+        }
+        projected.size = batch.size;
+        return projected;
+    }
+}
@@ -0,0 +1,66 @@
+package dbms;
+
+import java.nio.ByteBuffer;
+import java.util.Arrays;
+
+/**
+ * The columns a lookup or scan should decode, resolved once to field positions of a schema.
+ * Records read through a projection only hold the projected fields; the bytes of the others are skipped.
+ */
+public class Projection {
+    private final Schema schema;
+    private final int[] fields;  // null for every column
+
+    private Projection(Schema schema, int[] fields) {
+        this.schema = schema;
+        this.fields = fields;
+    }
+
+    public static Projection all(Schema schema) {
+        return new Projection(schema, null);
+    }
+
+    /**
+     * @throws IllegalArgumentException if a column is not in the schema
+     */
+    public static Projection of(Schema schema, String... columns) {
+        RecordCodec codec = schema.getCodec();
+        int[] fields = new int[columns.length];
+        for (int i = 0; i < columns.length; i++) {
+            fields[i] = codec.fieldIndex(columns[i]);
+        }
+        return new Projection(schema, fields);
+    }
+
+    public boolean isAll() {
+        return fields == null;
+    }
+
+    /**
+     * @return the projected field positions in the order given, or null when every column is projected
+     */
+    int[] getFields() {
+        return fields;
+    }
+
+    Schema getSchema() {
+        return schema;
+    }
+
+    Record decode(ByteBuffer buf, int start) {
+        RecordCodec codec = schema.getCodec();
+        return fields == null ? codec.decode(buf, start) : codec.decode(buf, start, fields);
+    }
+
+    @Override
+    public String toString() {
+        if (fields == null) {
+            return "Projection{*}";
+        }
+        String[] names = new String[fields.length];
+        for (int i = 0; i < fields.length; i++) {
+            names[i] = schema.getCodec().getName(fields[i]);
+        }
+        return "Projection" + Arrays.toString(names);
+    }
+}
@@ -0,0 +1,259 @@
+package dbms;
+
+import java.nio.ByteBuffer;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * A schema compiled for reading and writing records, built once per Schema.
+ *
+ * A serialized record is laid out as
+ * <pre>
+ *   rowId (4 bytes) | deletion marker (1) | one TEXT type code per text field | fixed-size fields | text bytes
+ * </pre>
+ * Fields of every other type keep their schema order at fixed offsets. Text fields follow them in schema
+ * order, each taking only the characters it holds; the type code of each one (0x0C + length, as in
+ * TextType) says how many that is. Only text fields need a code, since the schema fixes all other sizes.
+ */
+public class RecordCodec {
+    public static final int ROW_ID_SIZE = 4;
+    private static final int DELETION_MARKER = ROW_ID_SIZE;
+    private static final int TEXT_CODES = DELETION_MARKER + 1;
+
+    private final Schema schema;
+    private final String[] names;
+    private final ColumnType[] types;
+    // Offset from the start of the record for fixed-size fields; for text fields, -1 - their text index
+    private final int[] offsets;
+    private final int[] textFields;
+    private final int textStart;
+
+    RecordCodec(Schema schema) {
+        List<Schema.Metadata> fields = schema.getFields();
+        this.schema = schema;
+        this.names = new String[fields.size()];
+        this.types = new ColumnType[fields.size()];
+        this.offsets = new int[fields.size()];
+        int[] texts = new int[fields.size()];
+        int textCount = 0;
+        for (int i = 0; i < fields.size(); i++) {
+            names[i] = fields.get(i).getName();
+            types[i] = fields.get(i).getColumnType();
+            if (types[i].isText()) {
+                offsets[i] = -1 - textCount;
+                texts[textCount++] = i;
+            }
+        }
+        this.textFields = Arrays.copyOf(texts, textCount);
+
+        int offset = TEXT_CODES + textCount;
+        for (int i = 0; i < fields.size(); i++) {
+            if (!types[i].isText()) {
+                offsets[i] = offset;
+                offset += types[i].getLength();
+            }
+        }
+        this.textStart = offset;
+    }
+
+    /**
+     * @return the serialized size of a record whose text fields are all full
+     */
+    public int getMaxRecordSize() {
+        int size = textStart;
+        for (int field : textFields) {
+            size += types[field].getLength();
+        }
+        return size;
+    }
+
+    public int getFieldCount() {
+        return names.length;
+    }
+
+    public int fieldIndex(String fieldName) {
+        for (int i = 0; i < names.length; i++) {
+            if (names[i].equals(fieldName)) {
+                return i;
+            }
+        }
+        throw new IllegalArgumentException("Field not found: " + fieldName);
+    }
+
+    public String getName(int field) {
+        return names[field];
+    }
+
+    public ColumnType getType(int field) {
+        return types[field];
+    }
+
+    /**
+     * Field values read in their encoded form, for encoding a record without building a value per field.
+     * Fields are numbered in schema order.
+     */
+    interface FieldSource {
+        /**
+         * @return an integer field, for a column of any integer type
+         */
+        long getLong(int field, ColumnType type);
+
+        /**
+         * @return a FLOAT or DOUBLE field
+         */
+        double getDouble(int field, ColumnType type);
+
+        /**
+         * @return the number of characters a text field holds, at most max
+         */
+        int getTextLength(int field, int max);
+
+        /**
+         * Writes the first length characters of a text field as ASCII bytes.
+         */
+        void copyText(int field, ByteBuffer target, int position, int length);
+    }
+
+    public byte[] encode(int rowId, Map<String, Object> values, byte deletionMarker) {
+        int size = textStart;
+        for (int field : textFields) {
+            size += types[field].encodedLength(values.get(names[field]));
+        }
+
+        ByteBuffer buf = ByteBuffer.allocate(size);
+        buf.putInt(0, rowId);
+        buf.put(DELETION_MARKER, deletionMarker);
+        for (int i = 0; i < names.length; i++) {
+            if (offsets[i] >= 0) {
+                types[i].write(buf, offsets[i], values.get(names[i]));
+            }
+        }
+        int position = textStart;
+        for (int t = 0; t < textFields.length; t++) {
+            Object value = values.get(names[textFields[t]]);
+            int length = types[textFields[t]].encodedLength(value);
+            buf.put(TEXT_CODES + t, (byte) TextType.codeFor(length));
+            types[textFields[t]].write(buf, position, value);
+            position += length;
+        }
+        return buf.array();
+    }
+
+    /**
+     * Encodes a record straight from a FieldSource, the same way encode does from values.
+     */
+    byte[] encode(int rowId, FieldSource source, byte deletionMarker) {
+        int size = textStart;
+        for (int field : textFields) {
+            size += source.getTextLength(field, types[field].getLength());
+        }
+
+        ByteBuffer buf = ByteBuffer.allocate(size);
+        buf.putInt(0, rowId);
+        buf.put(DELETION_MARKER, deletionMarker);
+        for (int i = 0; i < names.length; i++) {
+            if (offsets[i] >= 0) {
+                switch (ColumnVector.kindOf(types[i])) {
+                    case INT:
+                    case LONG:
+                        types[i].writeLong(buf, offsets[i], source.getLong(i, types[i]));
+                        break;
+                    case DOUBLE:
+                        types[i].writeDouble(buf, offsets[i], source.getDouble(i, types[i]));
+                        break;
+                    default:
+                        break;
+                }
+            }
+        }
+        int position = textStart;
+        for (int t = 0; t < textFields.length; t++) {
+            int field = textFields[t];
+            int length = source.getTextLength(field, types[field].getLength());
+            buf.put(TEXT_CODES + t, (byte) TextType.codeFor(length));
+            source.copyText(field, buf, position, length);
+            position += length;
+        }
+        return buf.array();
+    }
+
+    /**
+     * @return the rowId of a record serialized by encode
+     */
+    public static int rowIdOf(byte[] record) {
+        return (record[0] & 0xFF) << 24 | (record[1] & 0xFF) << 16 | (record[2] & 0xFF) << 8 | record[3] & 0xFF;
+    }
+
+    /**
+     * Replaces the rowId of a record serialized by encode.
+     */
+    static void setRowId(byte[] record, int rowId) {
+        record[0] = (byte) (rowId >>> 24);
+        record[1] = (byte) (rowId >>> 16);
+        record[2] = (byte) (rowId >>> 8);
+        record[3] = (byte) rowId;
+    }
+
+    /**
+     * @return the position in buf of a field of the record serialized at start
+     */
+    int position(ByteBuffer buf, int start, int field) {
+        int offset = offsets[field];
+        if (offset >= 0) {
+            return start + offset;
+        }
+        int position = start + textStart;
+        for (int t = 0; t < -1 - offset; t++) {
+            position += textLength(buf, start, t);
+        }
+        return position;
+    }
+
+    private static int textLength(ByteBuffer buf, int start, int textIndex) {
+        return TextType.lengthOf(buf.get(start + TEXT_CODES + textIndex));
+    }
+
+    /**
+     * @return the number of bytes a field takes in the record serialized at start
+     */
+    int length(ByteBuffer buf, int start, int field) {
+        int offset = offsets[field];
+        return offset >= 0 ? types[field].getLength() : textLength(buf, start, -1 - offset);
+    }
+
+    Object readField(ByteBuffer buf, int start, int field) {
+        return types[field].read(buf, position(buf, start, field), length(buf, start, field));
+    }
+
+    /**
+     * Decodes the record serialized at start into a new Record.
+     */
+    public Record decode(ByteBuffer buf, int start) {
+        Map<String, Object> values = new HashMap<>();
+        int position = start + textStart;
+        for (int i = 0; i < names.length; i++) {
+            int offset = offsets[i];
+            if (offset >= 0) {
+                values.put(names[i], types[i].read(buf, start + offset, types[i].getLength()));
+            } else {
+                int length = textLength(buf, start, -1 - offset);
+                values.put(names[i], ColumnType.readText(buf, position, length));
+                position += length;
+            }
+        }
+        return new Record(buf.getInt(start), schema, values);
+    }
+
+    /**
+     * Decodes only the given fields of the record serialized at start; the other fields are not read.
+     */
+    public Record decode(ByteBuffer buf, int start, int[] fields) {
+        Map<String, Object> values = new HashMap<>();
+        for (int field : fields) {
+            values.put(names[field], readField(buf, start, field));
+        }
+        return new Record(buf.getInt(start), schema, values);
+    }
+}
@@ -0,0 +1,133 @@
+package dbms;
+
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.nio.ByteBuffer;
+import java.util.Iterator;
+import java.util.NoSuchElementException;
+
+/**
+ * Forward-only cursor over a rowId range of a table.
+ * It walks the leaf pages through their right sibling links. Each leaf is latched shared just long
+ * enough to copy the bytes of its records in the range into a buffer the cursor reuses, so a scan holds
+ * no latch between calls to next and never more than one leaf of records in memory.
+ *
+ * nextView reads the records from that buffer through a single RecordView and allocates nothing once the
+ * buffer has grown to a leaf's worth of records; next builds a Record holding only the fields of the
+ * cursor's projection.
+ *
+ * Concurrent inserts only split leaves to the right, so every record that existed when the scan started
+ * is returned; records inserted during the scan may or may not be.
+ * I/O errors are rethrown as UncheckedIOException.
+ */
+public class RecordCursor implements Iterator<Record> {
+    private static final byte LEAF_PAGE_TYPE = 0x0d;
+
+    private final Schema schema;
+    private final PageStore pageStore;
+    private final int toRowId;
+    private final RecordView view;
+    private final Projection projection;
+    private int leafPage;      // next leaf to read, -1 once the range is exhausted
+    private int fromRowId;     // no record below this is returned any more
+    private ByteBuffer batch = ByteBuffer.allocate(0);
+    private int[] batchOffsets = new int[0];
+    private int batchSize;
+    private int batchIndex;
+
+    RecordCursor(Schema schema, PageStore pageStore, int firstLeaf, int fromRowId, int toRowId,
+                 Projection projection) {
+        this.schema = schema;
+        this.pageStore = pageStore;
+        this.view = new RecordView(schema);
+        this.projection = projection;
+        this.leafPage = firstLeaf;
+        this.fromRowId = fromRowId;
+        this.toRowId = toRowId;
+    }
+
+    static RecordCursor empty(Schema schema, PageStore pageStore) {
+        return new RecordCursor(schema, pageStore, -1, 0, Integer.MIN_VALUE, Projection.all(schema));
+    }
+
+    @Override
+    public boolean hasNext() {
+        try {
+            while (batchIndex == batchSize) {
+                if (leafPage < 0) {
+                    return false;
+                }
+                readLeaf();
+            }
+            return true;
+        } catch (IOException e) {
+            throw new UncheckedIOException(e);
+        }
+    }
+
+    @Override
+    public Record next() {
+        if (!hasNext()) {
+            throw new NoSuchElementException();
+        }
+        return projection.decode(batch, batchOffsets[batchIndex++]);
+    }
+
+    /**
+     * Moves to the next record and returns a view of it. The same view is returned on every call,
+     * so it is only valid until the next one.
+     */
+    public RecordView nextView() {
+        if (!hasNext()) {
+            throw new NoSuchElementException();
+        }
+        return view.wrap(batch, batchOffsets[batchIndex++]);
+    }
+
+    // Copies the records of the current leaf from fromRowId on and moves to its right sibling
+    private void readLeaf() throws IOException {
+        int current = leafPage;
+        batchSize = 0;
+        batchIndex = 0;
+        int lastRowId = fromRowId;
+        pageStore.latch(current, false);
+        try {
+            Page leaf = new Page(schema, pageStore, current, LEAF_PAGE_TYPE);
+            int count = leaf.getRecordCount();
+            if (batchOffsets.length < count) {
+                batchOffsets = new int[count];
+            }
+            int position = 0;
+            for (int i = leaf.findIndex(fromRowId); i < count; i++) {
+                int rowId = leaf.getRowIdAt(i);
+                if (rowId > toRowId) {
+                    leafPage = -1;
+                    break;
+                }
+                int size = leaf.getRecordSizeAt(i);
+                if (batch.capacity() < position + size) {
+                    ByteBuffer larger = ByteBuffer.allocate(Math.max(2 * batch.capacity(), pageStore.getPageSize()));
+                    System.arraycopy(batch.array(), 0, larger.array(), 0, position);
+                    batch = larger;
+                }
+                batchOffsets[batchSize++] = position;
+                position += leaf.copyRecordAt(i, batch.array(), position);
+                lastRowId = rowId;
+            }
+            if (leafPage >= 0) {
+                Integer sibling = leaf.getRightSibling();
+                leafPage = sibling == null ? -1 : sibling;
+            }
+        } finally {
+            pageStore.unlatch(current, false);
+        }
+
+        if (batchSize > 0) {
+            if (lastRowId == Integer.MAX_VALUE) {
+                leafPage = -1;
+            } else {
+                fromRowId = lastRowId + 1;
+            }
+        }
+    }
+}
@@ -0,0 +1,112 @@
+package dbms;
+
+import java.nio.ByteBuffer;
+
+/**
+ * Read-only view of a serialized record, reading fields in place where the schema's codec puts them.
+ * A view is moved from record to record with wrap instead of being allocated again, so code that only
+ * looks at a few fields of many records creates no objects; toRecord builds a Record when one is needed.
+ *
+ * A view over a page is only valid while the page's latch is held, and a view over any buffer only until
+ * it is wrapped around another record.
+ */
+public class RecordView {
+    private final RecordCodec codec;
+    private ByteBuffer buffer;
+    private int start;
+
+    public RecordView(Schema schema) {
+        this.codec = schema.getCodec();
+    }
+
+    /**
+     * Points the view at the record serialized at the given position of the buffer.
+     *
+     * @return this view
+     */
+    public RecordView wrap(ByteBuffer buffer, int start) {
+        this.buffer = buffer;
+        this.start = start;
+        return this;
+    }
+
+    public int getRowId() {
+        return buffer.getInt(start);
+    }
+
+    /**
+     * @return the position of the named field in the schema, for the index-based getters
+     */
+    public int fieldIndex(String fieldName) {
+        return codec.fieldIndex(fieldName);
+    }
+
+    /**
+     * Reads an integer field of at most 4 bytes (TINYINT, SMALLINT, INT, YEAR or TIME).
+     */
+    public int getInt(int field) {
+        return codec.getType(field).readInt(buffer, codec.position(buffer, start, field));
+    }
+
+    public int getInt(String fieldName) {
+        return getInt(fieldIndex(fieldName));
+    }
+
+    public short getShort(int field) {
+        return (short) getInt(field);
+    }
+
+    public short getShort(String fieldName) {
+        return getShort(fieldIndex(fieldName));
+    }
+
+    /**
+     * Reads any integer field, BIGINT, DATETIME and DATE included.
+     */
+    public long getLong(int field) {
+        return codec.getType(field).readLong(buffer, codec.position(buffer, start, field));
+    }
+
+    public long getLong(String fieldName) {
+        return getLong(fieldIndex(fieldName));
+    }
+
+    /**
+     * Reads any numeric field.
+     */
+    public double getDouble(int field) {
+        return codec.getType(field).readDouble(buffer, codec.position(buffer, start, field));
+    }
+
+    public double getDouble(String fieldName) {
+        return getDouble(fieldIndex(fieldName));
+    }
+
+    public String getString(int field) {
+        Object value = codec.readField(buffer, start, field);
+        return value instanceof String ? (String) value : String.valueOf(value);
+    }
+
+    public String getString(String fieldName) {
+        return getString(fieldIndex(fieldName));
+    }
+
+    /**
+     * @return the field boxed the way Record holds it
+     */
+    public Object getValue(int field) {
+        return codec.readField(buffer, start, field);
+    }
+
+    /**
+     * Copies every field out of the underlying bytes into a new Record.
+     */
+    public Record toRecord() {
+        return codec.decode(buffer, start);
+    }
+
+    @Override
+    public String toString() {
+        return buffer == null ? "RecordView{}" : "RecordView{rowId=" + getRowId() + "}";
+    }
+}
@@ -0,0 +1,103 @@
+package dbms;
+
+/**
+ * A batch of up to a fixed number of rows passed between the operators of a query, stored column by column
+ * in ColumnVectors. Filtering does not move values: the batch keeps a selection vector of the rows still in
+ * it, and its accessors take positions in that selection.
+ *
+ * Operators reuse their batches, so a batch is only valid until the next one is asked for.
+ */
+public class RowBatch {
+    public static final int DEFAULT_CAPACITY = 1024;
+
+    private final String[] names;
+    private final ColumnVector[] vectors;
+    final int[] rowIds;
+    // Rows still in the batch, in order, as indexes into rowIds and the vectors
+    final int[] selection;
+    int size;
+
+    RowBatch(String[] names, ColumnType[] types, int capacity) {
+        this.names = names;
+        this.vectors = new ColumnVector[types.length];
+        for (int i = 0; i < types.length; i++) {
+            vectors[i] = new ColumnVector(types[i], capacity);
+        }
+        this.rowIds = new int[capacity];
+        this.selection = new int[capacity];
+    }
+
+    private RowBatch(String[] names, ColumnVector[] vectors, int[] rowIds, int[] selection) {
+        this.names = names;
+        this.vectors = vectors;
+        this.rowIds = rowIds;
+        this.selection = selection;
+    }
+
+    /**
+     * @return a batch over the same rows and vectors holding only the given columns, in that order;
+     * its size has to be kept in step by the caller
+     */
+    RowBatch project(int[] columns) {
+        String[] projectedNames = new String[columns.length];
+        ColumnVector[] projectedVectors = new ColumnVector[columns.length];
+        for (int i = 0; i < columns.length; i++) {
+            projectedNames[i] = names[columns[i]];
+            projectedVectors[i] = vectors[columns[i]];
+        }
+        return new RowBatch(projectedNames, projectedVectors, rowIds, selection);
+    }
+
+    public int getCapacity() {
+        return rowIds.length;
+    }
+
+    /**
+     * @return the number of rows in the batch
+     */
+    public int size() {
+        return size;
+    }
+
+    public int getColumnCount() {
+        return names.length;
+    }
+
+    public String getColumnName(int column) {
+        return names[column];
+    }
+
+    /**
+     * @throws IllegalArgumentException if the batch has no such column
+     */
+    public int columnIndex(String name) {
+        for (int i = 0; i < names.length; i++) {
+            if (names[i].equals(name)) {
+                return i;
+            }
+        }
+        throw new IllegalArgumentException("Column not found: " + name);
+    }
+
+    /**
+     * @return the vector of a column; its arrays are indexed by getRow, not by position
+     */
+    public ColumnVector getColumn(int column) {
+        return vectors[column];
+    }
+
+    /**
+     * @return the index in the column vectors of the row at a position of the batch
+     */
+    public int getRow(int position) {
+        return selection[position];
+    }
+
+    public int getRowId(int position) {
+        return rowIds[selection[position]];
+    }
+
+    public Object getValue(int column, int position) {
+        return vectors[column].getValue(selection[position]);
+    }
+}
@@ -0,0 +1,61 @@
+package dbms;
+
+import java.io.IOException;
+import java.io.UncheckedIOException;
+
+/**
+ * Reads a rowId range of a table into batches, decoding only the projected columns. Records are read
+ * through the cursor's RecordView straight into the column vectors, so no Record is built.
+ */
+public class ScanOperator implements BatchOperator {
+    private final RecordCursor cursor;
+    private final int[] fields;
+    private final String[] columns;
+    private final RowBatch batch;
+
+    public ScanOperator(Table table, Projection projection, int fromRowId, int toRowId, int capacity)
+            throws IOException {
+        RecordCodec codec = projection.getSchema().getCodec();
+        int[] projected = projection.getFields();
+        if (projected == null) {
+            projected = new int[codec.getFieldCount()];
+            for (int i = 0; i < projected.length; i++) {
+                projected[i] = i;
+            }
+        }
+        this.fields = projected;
+        this.columns = new String[fields.length];
+        ColumnType[] types = new ColumnType[fields.length];
+        for (int i = 0; i < fields.length; i++) {
+            columns[i] = codec.getName(fields[i]);
+            types[i] = codec.getType(fields[i]);
+        }
+        this.batch = new RowBatch(columns, types, capacity);
+        this.cursor = table.scan(fromRowId, toRowId, projection);
+    }
+
+    @Override
+    public String[] getColumns() {
+        return columns.clone();
+    }
+
+    @Override
+    public RowBatch next() throws IOException {
+        int rows = 0;
+        try {
+            while (rows < batch.getCapacity() && cursor.hasNext()) {
+                RecordView view = cursor.nextView();
+                batch.rowIds[rows] = view.getRowId();
+                for (int c = 0; c < fields.length; c++) {
+                    batch.getColumn(c).read(view, fields[c], rows);
+                }
+                batch.selection[rows] = rows;
+                rows++;
+            }
+        } catch (UncheckedIOException e) {
+            throw e.getCause();
+        }
+        batch.size = rows;
+        return rows == 0 ? null : batch;
+    }
+}
@@ -5,14 +5,23 @@ import java.util.*;
 public class Schema {
     public static class Metadata {
         private final String name;  // Field name
-        private final String type;  // Field type as a string: "int", "string", etc.
-        private final int length;   // Field length for fixed-length types
+        private final String type;  // Field type as written in the column definition: "int", "text(30)", etc.
+        private final ColumnType columnType;
 
-        // Constructor
+        public Metadata(String name, String type) {
+            this.name = name;
+            this.type = type.toLowerCase();
+            this.columnType = ColumnType.parse(type);
+        }
+
+        /**
+         * @param length the length of a text field; other types have a fixed length
+         */
         public Metadata(String name, String type, int length) {
             this.name = name;
             this.type = type.toLowerCase();
-            this.length = length;
+            ColumnType parsed = ColumnType.parse(type);
+            this.columnType = parsed.isText() ? ColumnType.ofText(length) : parsed;
         }
 
         public String getName() {
@@ -23,20 +32,26 @@ public class Schema {
             return type;
         }
 
+        public ColumnType getColumnType() {
+            return columnType;
+        }
+
         public int getLength() {
-            return length;
+            return columnType.getLength();
         }
 
         @Override
         public String toString() {
-            return "Metadata{name='" + name + "', type='" + type + "', length=" + length + "}";
+            return "Metadata{name='" + name + "', type=" + columnType + "}";
         }
     }
 
     private final List<Metadata> fields;
+    private final RecordCodec codec;
 
     public Schema(List<Metadata> fields) {
-        this.fields = fields;
+        this.fields = Collections.unmodifiableList(new ArrayList<>(fields));
+        this.codec = new RecordCodec(this);
     }
 
     public List<Metadata> getFields() {
@@ -50,8 +65,15 @@ public class Schema {
                 .orElseThrow(() -> new IllegalArgumentException("Field not found: " + fieldName));
     }
 
+    /**
+     * @return the codec compiled from these fields when the schema was created
+     */
+    public RecordCodec getCodec() {
+        return codec;
+    }
+
     @Override
     public String toString() {
         return "Schema{" + "fields=" + fields + '}';
     }
-}
\ No newline at end of file
+}
@@ -0,0 +1,529 @@
+package dbms;
+
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+import java.util.Arrays;
+import java.util.concurrent.locks.ReentrantReadWriteLock;
+
+/**
+ * Secondary index on one column of a table, kept in its own file (see fileName).
+ * It is a B+tree whose keys are the column value followed by the rowId, both encoded so that comparing
+ * the bytes orders keys like their values. That makes every key unique and every entry the same size.
+ * Leaves are chained through their right sibling for range scans.
+ *
+ * The index is derived from its table and is not logged. Its header is marked dirty, and forced to disk,
+ * before the first change after a flush, and only the next flush marks it clean again; the table rebuilds
+ * an index it finds dirty or behind when it is opened.
+ *
+ * Lookups share the index and inserts hold it exclusively; pages are latched only to keep them in memory.
+ */
+public class SecondaryIndex implements ColumnIndex {
+    private static final byte LEAF_PAGE_TYPE = 0x0a;
+    private static final byte INTERIOR_PAGE_TYPE = 0x02;
+    private static final int MAGIC = 0x43424958;  // "CBIX"
+    private static final short VERSION = 1;
+    private static final int HEADER_PAGE = 0;
+
+    // Header page layout (byte offsets within page 0)
+    private static final int MAGIC_OFFSET = 0;
+    private static final int VERSION_OFFSET = 4;
+    private static final int DIRTY_OFFSET = 6;         // 1 while the file may not match the table
+    private static final int PAGE_SIZE_OFFSET = 8;
+    private static final int ROOT_PAGE_OFFSET = 12;
+    private static final int NEXT_PAGE_OFFSET = 16;
+    private static final int NEXT_ROW_ID_OFFSET = 20;  // the table's next rowId at the last flush
+    private static final int COLUMN_LENGTH_OFFSET = 24;
+    private static final int COLUMN_OFFSET = 26;
+
+    // Index page layout: a header, then fixed-size cells in key order
+    private static final int PAGE_TYPE = 0;
+    private static final int CELL_COUNT = 2;
+    private static final int RIGHT_POINTER = 8;  // right sibling of a leaf, right child of an interior page
+    private static final int PAGE_HEADER_SIZE = 16;
+    private static final int CHILD_POINTER_BYTES = 4;
+    private static final int ROW_ID_BYTES = 4;
+
+    private final String column;
+    private final ColumnType type;
+    private final RandomAccessFile file;
+    private final PageStore pageStore;
+    private final int pageSize;
+    private final int valueSize;
+    private final int keySize;
+    private final int maxLeafKeys;
+    private final int maxInteriorKeys;
+    private final ReentrantReadWriteLock lock = new ReentrantReadWriteLock();
+    private int rootPage = -1;
+    private int nextPage = HEADER_PAGE + 1;
+    private int indexedNextRowId = -1;
+    private boolean dirty = true;
+    private boolean stale;
+
+    // Set by insertInto for its caller
+    private byte[] splitKey;
+    private boolean inserted;
+
+    private SecondaryIndex(String path, Schema schema, String column, StorageBackend backend, int pageSize)
+            throws IOException {
+        RecordCodec codec = schema.getCodec();
+        this.column = column;
+        this.type = codec.getType(codec.fieldIndex(column));
+        if (!type.isText() && type.getDataType() == DataType.NULL) {
+            throw new IllegalArgumentException("Column " + column + " holds no values to index");
+        }
+        this.valueSize = type.getLength();
+        this.keySize = valueSize + ROW_ID_BYTES;
+        this.pageSize = pageSize;
+        this.maxLeafKeys = (pageSize - PAGE_HEADER_SIZE) / keySize;
+        this.maxInteriorKeys = (pageSize - PAGE_HEADER_SIZE) / (CHILD_POINTER_BYTES + keySize);
+        if (maxInteriorKeys < 3 || COLUMN_OFFSET + column.length() > pageSize) {
+            throw new IllegalArgumentException("Column " + column + " is too wide to index in " + pageSize +
+                    " byte pages");
+        }
+        this.file = new RandomAccessFile(path, "rw");
+        this.pageStore = backend.open(file, pageSize);
+    }
+
+    public static String fileName(String tableName, String column) {
+        return tableName + "." + column + ".idx";
+    }
+
+    /**
+     * Creates an empty index file, replacing any file of the same name. The index starts out stale,
+     * so the caller fills it from the table and flushes it.
+     */
+    public static SecondaryIndex create(String path, Schema schema, String column, StorageBackend backend,
+                                        int pageSize) throws IOException {
+        SecondaryIndex index = new SecondaryIndex(path, schema, column, backend, pageSize);
+        index.file.setLength(0);
+        index.stale = true;
+        index.writeHeader();
+        return index;
+    }
+
+    /**
+     * Opens an existing index file. An index that is dirty, unreadable or was last flushed at another table
+     * state than tableNextRowId is cleared and reported by isStale, so the caller can rebuild it.
+     */
+    public static SecondaryIndex open(String path, Schema schema, String column, StorageBackend backend,
+                                      int pageSize, int tableNextRowId) throws IOException {
+        SecondaryIndex index = new SecondaryIndex(path, schema, column, backend, pageSize);
+        if (!index.readHeader() || index.dirty || index.indexedNextRowId != tableNextRowId) {
+            Log.warn("Index " + path + " does not match its table and is rebuilt");
+            index.clear();
+        }
+        return index;
+    }
+
+    @Override
+    public boolean isStale() {
+        return stale;
+    }
+
+    @Override
+    public String getColumn() {
+        return column;
+    }
+
+    @Override
+    public Kind getKind() {
+        return Kind.BTREE;
+    }
+
+    @Override
+    public boolean supportsRanges() {
+        return true;
+    }
+
+    // Returns false when page 0 is not the header of an index on this column
+    private boolean readHeader() throws IOException {
+        if (file.length() < pageSize) {
+            return false;
+        }
+        pageStore.latch(HEADER_PAGE, false);
+        try {
+            ByteBuffer buf = pageStore.getPage(HEADER_PAGE);
+            if (buf.getInt(MAGIC_OFFSET) != MAGIC || buf.getShort(VERSION_OFFSET) != VERSION ||
+                    buf.getInt(PAGE_SIZE_OFFSET) != pageSize) {
+                return false;
+            }
+            byte[] name = new byte[buf.getShort(COLUMN_LENGTH_OFFSET) & 0xFFFF];
+            buf.duplicate().position(COLUMN_OFFSET).get(name);
+            if (!column.equals(new String(name, StandardCharsets.US_ASCII))) {
+                return false;
+            }
+            dirty = buf.get(DIRTY_OFFSET) != 0;
+            rootPage = buf.getInt(ROOT_PAGE_OFFSET);
+            nextPage = buf.getInt(NEXT_PAGE_OFFSET);
+            indexedNextRowId = buf.getInt(NEXT_ROW_ID_OFFSET);
+            return true;
+        } finally {
+            pageStore.unlatch(HEADER_PAGE, false);
+        }
+    }
+
+    private void writeHeader() throws IOException {
+        byte[] name = column.getBytes(StandardCharsets.US_ASCII);
+        pageStore.latch(HEADER_PAGE, true);
+        try {
+            ByteBuffer buf = pageStore.getPage(HEADER_PAGE);
+            buf.putInt(MAGIC_OFFSET, MAGIC);
+            buf.putShort(VERSION_OFFSET, VERSION);
+            buf.put(DIRTY_OFFSET, (byte) (dirty ? 1 : 0));
+            buf.putInt(PAGE_SIZE_OFFSET, pageSize);
+            buf.putInt(ROOT_PAGE_OFFSET, rootPage);
+            buf.putInt(NEXT_PAGE_OFFSET, nextPage);
+            buf.putInt(NEXT_ROW_ID_OFFSET, indexedNextRowId);
+            buf.putShort(COLUMN_LENGTH_OFFSET, (short) name.length);
+            buf.duplicate().position(COLUMN_OFFSET).put(name);
+            pageStore.markDirty(HEADER_PAGE);
+        } finally {
+            pageStore.unlatch(HEADER_PAGE, true);
+        }
+    }
+
+    /**
+     * Drops every entry; the pages past the header are reused as the index grows again.
+     */
+    @Override
+    public void clear() throws IOException {
+        lock.writeLock().lock();
+        try {
+            rootPage = -1;
+            nextPage = HEADER_PAGE + 1;
+            dirty = true;
+            stale = true;
+            writeHeader();
+        } finally {
+            lock.writeLock().unlock();
+        }
+    }
+
+    @Override
+    public void flush(int tableNextRowId) throws IOException {
+        lock.writeLock().lock();
+        try {
+            dirty = false;
+            stale = false;
+            indexedNextRowId = tableNextRowId;
+            writeHeader();
+            pageStore.flush();
+            file.getChannel().force(false);
+        } finally {
+            lock.writeLock().unlock();
+        }
+    }
+
+    @Override
+    public void close() throws IOException {
+        lock.writeLock().lock();
+        try {
+            pageStore.close();
+            file.close();
+        } finally {
+            lock.writeLock().unlock();
+        }
+    }
+
+    @Override
+    public boolean insert(Record record) throws IOException {
+        return insert(record.getRowId(), record.getValue(column));
+    }
+
+    public boolean insert(int rowId, Object value) throws IOException {
+        byte[] key = encodeKey(value, rowId);
+        lock.writeLock().lock();
+        try {
+            if (!dirty) {
+                // The file has to say it may be out of date before any page of it can change
+                dirty = true;
+                writeHeader();
+                pageStore.flush();
+                file.getChannel().force(false);
+            }
+            if (rootPage < 0) {
+                rootPage = allocatePage();
+                writeLeaf(rootPage, new byte[0], 0, 0, -1);
+            }
+            int right = insertInto(rootPage, key);
+            if (right >= 0) {
+                int newRoot = allocatePage();
+                writeInterior(newRoot, splitKey, 0, new int[]{rootPage, right}, 0, 1);
+                rootPage = newRoot;
+            }
+            return inserted;
+        } finally {
+            lock.writeLock().unlock();
+        }
+    }
+
+    /**
+     * Reads one page per tree level, then only the leaves holding matches.
+     *
+     * @return the rowIds in order of value, then rowId
+     */
+    @Override
+    public int[] find(Object from, Object to) throws IOException {
+        byte[] low = from == null ? null : encodeKey(from, Integer.MIN_VALUE);
+        byte[] high = to == null ? null : encodeKey(to, Integer.MAX_VALUE);
+        int[] rowIds = new int[16];
+        int count = 0;
+        lock.readLock().lock();
+        try {
+            if (rootPage < 0) {
+                return new int[0];
+            }
+            int page = rootPage;
+            while (true) {
+                pageStore.latch(page, false);
+                int next;
+                boolean leaf;
+                try {
+                    ByteBuffer buf = pageStore.getPage(page);
+                    leaf = buf.get(PAGE_TYPE) == LEAF_PAGE_TYPE;
+                    next = leaf ? page : childFor(buf, low);
+                } finally {
+                    pageStore.unlatch(page, false);
+                }
+                if (leaf) {
+                    break;
+                }
+                page = next;
+            }
+
+            int position = low == null ? 0 : -1;
+            while (page >= 0) {
+                int current = page;
+                pageStore.latch(current, false);
+                try {
+                    ByteBuffer buf = pageStore.getPage(current);
+                    int cells = cellCount(buf);
+                    int i = position >= 0 ? position : search(buf, cells, low, keySize, 0, false);
+                    for (; i < cells; i++) {
+                        int cell = PAGE_HEADER_SIZE + i * keySize;
+                        if (high != null && compare(buf, cell, high) > 0) {
+                            return Arrays.copyOf(rowIds, count);
+                        }
+                        if (count == rowIds.length) {
+                            rowIds = Arrays.copyOf(rowIds, count * 2);
+                        }
+                        rowIds[count++] = buf.getInt(cell + valueSize) ^ Integer.MIN_VALUE;
+                    }
+                    page = buf.getInt(RIGHT_POINTER);
+                } finally {
+                    pageStore.unlatch(current, false);
+                }
+                position = 0;
+            }
+            return Arrays.copyOf(rowIds, count);
+        } finally {
+            lock.readLock().unlock();
+        }
+    }
+
+    // Inserts key below page. Returns the page split off to its right, with splitKey set to the first key
+    // that belongs there, or -1 if page did not split.
+    private int insertInto(int page, byte[] key) throws IOException {
+        pageStore.latch(page, true);
+        try {
+            ByteBuffer buf = pageStore.getPage(page);
+            int cells = cellCount(buf);
+            if (buf.get(PAGE_TYPE) == LEAF_PAGE_TYPE) {
+                int index = search(buf, cells, key, keySize, 0, false);
+                int cell = PAGE_HEADER_SIZE + index * keySize;
+                if (index < cells && compare(buf, cell, key) == 0) {
+                    inserted = false;
+                    return -1;
+                }
+                inserted = true;
+                if (cells < maxLeafKeys) {
+                    moveBytes(buf, cell, cell + keySize, (cells - index) * keySize);
+                    putBytes(buf, cell, key, 0, keySize);
+                    buf.putShort(CELL_COUNT, (short) (cells + 1));
+                    pageStore.markDirty(page);
+                    return -1;
+                }
+
+                byte[] keys = new byte[(cells + 1) * keySize];
+                getBytes(buf, PAGE_HEADER_SIZE, keys, 0, index * keySize);
+                System.arraycopy(key, 0, keys, index * keySize, keySize);
+                getBytes(buf, cell, keys, (index + 1) * keySize, (cells - index) * keySize);
+                int leftCount = (cells + 1) / 2;
+                int right = allocatePage();
+                writeLeaf(right, keys, leftCount, cells + 1 - leftCount, buf.getInt(RIGHT_POINTER));
+                writeLeaf(page, keys, 0, leftCount, right);
+                splitKey = Arrays.copyOfRange(keys, leftCount * keySize, (leftCount + 1) * keySize);
+                return right;
+            }
+
+            int cellSize = CHILD_POINTER_BYTES + keySize;
+            int index = search(buf, cells, key, cellSize, CHILD_POINTER_BYTES, true);
+            int child = index < cells ? buf.getInt(PAGE_HEADER_SIZE + index * cellSize) : buf.getInt(RIGHT_POINTER);
+            int right = insertInto(child, key);
+            if (right < 0) {
+                return -1;
+            }
+
+            // The child split: its new sibling goes right after it, separated by splitKey
+            int keyCount = cells + 1;
+            int[] children = new int[keyCount + 1];
+            byte[] keys = new byte[keyCount * keySize];
+            for (int i = 0; i < cells; i++) {
+                int cell = PAGE_HEADER_SIZE + i * cellSize;
+                children[i <= index ? i : i + 1] = buf.getInt(cell);
+                getBytes(buf, cell + CHILD_POINTER_BYTES, keys, (i < index ? i : i + 1) * keySize, keySize);
+            }
+            children[keyCount] = buf.getInt(RIGHT_POINTER);
+            children[index] = child;
+            children[index + 1] = right;
+            System.arraycopy(splitKey, 0, keys, index * keySize, keySize);
+
+            if (keyCount <= maxInteriorKeys) {
+                writeInterior(page, keys, 0, children, 0, keyCount);
+                return -1;
+            }
+            int mid = keyCount / 2;
+            int newPage = allocatePage();
+            writeInterior(newPage, keys, mid + 1, children, mid + 1, keyCount - mid - 1);
+            writeInterior(page, keys, 0, children, 0, mid);
+            splitKey = Arrays.copyOfRange(keys, mid * keySize, (mid + 1) * keySize);
+            return newPage;
+        } finally {
+            pageStore.unlatch(page, true);
+        }
+    }
+
+    // Returns the child of an interior page whose range holds key; a null key means the leftmost child
+    private int childFor(ByteBuffer buf, byte[] key) {
+        int cellSize = CHILD_POINTER_BYTES + keySize;
+        int cells = cellCount(buf);
+        int index = key == null ? 0 : search(buf, cells, key, cellSize, CHILD_POINTER_BYTES, true);
+        return index < cells ? buf.getInt(PAGE_HEADER_SIZE + index * cellSize) : buf.getInt(RIGHT_POINTER);
+    }
+
+    // Binary-searches the cells for the first key not less than key, or with upper the first key greater than it
+    private int search(ByteBuffer buf, int cells, byte[] key, int cellSize, int keyOffset, boolean upper) {
+        int low = 0;
+        int high = cells;
+        while (low < high) {
+            int mid = (low + high) >>> 1;
+            int c = compare(buf, PAGE_HEADER_SIZE + mid * cellSize + keyOffset, key);
+            if (c < 0 || (upper && c == 0)) {
+                low = mid + 1;
+            } else {
+                high = mid;
+            }
+        }
+        return low;
+    }
+
+    private int compare(ByteBuffer buf, int position, byte[] key) {
+        for (int i = 0; i < keySize; i++) {
+            int c = (buf.get(position + i) & 0xFF) - (key[i] & 0xFF);
+            if (c != 0) {
+                return c;
+            }
+        }
+        return 0;
+    }
+
+    /**
+     * Encodes (value, rowId) so that unsigned byte order is value order, then rowId order: integers get their
+     * sign bit flipped, negative floats all their bits, and text is zero-padded so shorter text sorts first.
+     */
+    private byte[] encodeKey(Object value, int rowId) {
+        ByteBuffer key = ByteBuffer.allocate(keySize);
+        type.write(key, 0, type.coerce(value, column));
+        if (!type.isText()) {
+            DataType dataType = type.getDataType();
+            boolean floating = dataType == DataType.FLOAT || dataType == DataType.DOUBLE;
+            if (floating && key.get(0) < 0) {
+                for (int i = 0; i < valueSize; i++) {
+                    key.put(i, (byte) ~key.get(i));
+                }
+            } else {
+                key.put(0, (byte) (key.get(0) ^ 0x80));
+            }
+        }
+        key.putInt(valueSize, rowId ^ Integer.MIN_VALUE);
+        return key.array();
+    }
+
+    private int allocatePage() {
+        return nextPage++;
+    }
+
+    private static int cellCount(ByteBuffer buf) {
+        return buf.getShort(CELL_COUNT) & 0xFFFF;
+    }
+
+    private void writeLeaf(int page, byte[] keys, int from, int count, int rightSibling) throws IOException {
+        pageStore.latch(page, true);
+        try {
+            ByteBuffer buf = pageStore.getPage(page);
+            buf.put(PAGE_TYPE, LEAF_PAGE_TYPE);
+            buf.putShort(CELL_COUNT, (short) count);
+            buf.putInt(RIGHT_POINTER, rightSibling);
+            putBytes(buf, PAGE_HEADER_SIZE, keys, from * keySize, count * keySize);
+            pageStore.markDirty(page);
+        } finally {
+            pageStore.unlatch(page, true);
+        }
+    }
+
+    // Writes count keys starting at keyFrom; children holds count + 1 pages from childFrom, the last one
+    // becoming the right child
+    private void writeInterior(int page, byte[] keys, int keyFrom, int[] children, int childFrom, int count)
+            throws IOException {
+        int cellSize = CHILD_POINTER_BYTES + keySize;
+        pageStore.latch(page, true);
+        try {
+            ByteBuffer buf = pageStore.getPage(page);
+            buf.put(PAGE_TYPE, INTERIOR_PAGE_TYPE);
+            buf.putShort(CELL_COUNT, (short) count);
+            buf.putInt(RIGHT_POINTER, children[childFrom + count]);
+            for (int i = 0; i < count; i++) {
+                int cell = PAGE_HEADER_SIZE + i * cellSize;
+                buf.putInt(cell, children[childFrom + i]);
+                putBytes(buf, cell + CHILD_POINTER_BYTES, keys, (keyFrom + i) * keySize, keySize);
+            }
+            pageStore.markDirty(page);
+        } finally {
+            pageStore.unlatch(page, true);
+        }
+    }
+
+    private static void putBytes(ByteBuffer buf, int position, byte[] source, int offset, int length) {
+        if (buf.hasArray()) {
+            System.arraycopy(source, offset, buf.array(), buf.arrayOffset() + position, length);
+        } else {
+            buf.duplicate().position(position).put(source, offset, length);
+        }
+    }
+
+    private static void getBytes(ByteBuffer buf, int position, byte[] target, int offset, int length) {
+        if (buf.hasArray()) {
+            System.arraycopy(buf.array(), buf.arrayOffset() + position, target, offset, length);
+        } else {
+            buf.duplicate().position(position).get(target, offset, length);
+        }
+    }
+
+    private static void moveBytes(ByteBuffer buf, int from, int to, int length) {
+        if (buf.hasArray()) {
+            System.arraycopy(buf.array(), buf.arrayOffset() + from, buf.array(), buf.arrayOffset() + to, length);
+        } else {
+            byte[] bytes = new byte[length];
+            getBytes(buf, from, bytes, 0, length);
+            putBytes(buf, to, bytes, 0, length);
+        }
+    }
+
+    @Override
+    public String toString() {
+        return "SecondaryIndex{column=" + column + ", rootPage=" + rootPage + ", nextPage=" + nextPage +
+                ", dirty=" + dirty + "}";
+    }
+}
@@ -0,0 +1,165 @@
+package dbms;
+
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Set;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
+
+/**
+ * A parsed SELECT &lt;columns&gt; FROM &lt;table&gt; [WHERE &lt;condition&gt; [AND ...]] [LIMIT n].
+ * plan turns it into a scan of the table followed by filter, limit and project operators, the scan
+ * decoding only the columns the query uses. SELECT COUNT(*) is answered by count, with a ParallelScan.
+ */
+public class SelectStatement {
+    private static final Pattern SELECT = Pattern.compile(
+            "SELECT\\s+(.+?)\\s+FROM\\s+(\\w+)(?:\\s+WHERE\\s+(.+?))?(?:\\s+LIMIT\\s+(\\d+))?\\s*;?\\s*",
+            Pattern.CASE_INSENSITIVE | Pattern.DOTALL);
+    private static final Pattern COUNT = Pattern.compile("COUNT\\s*\\(\\s*\\*\\s*\\)", Pattern.CASE_INSENSITIVE);
+    private static final Pattern AND = Pattern.compile("\\s+AND\\s+", Pattern.CASE_INSENSITIVE);
+    private static final Pattern CONDITION = Pattern.compile(
+            "(\\w+)\\s*(<=|>=|<>|!=|=|<|>)\\s*('(?:[^']|'')*'|[^\\s']+)");
+
+    private final String tableName;
+    private final List<String> columns;  // empty for every column
+    private final List<Condition> conditions;
+    private final long limit;            // -1 for none
+    private final boolean count;
+
+    public SelectStatement(String tableName, List<String> columns, List<Condition> conditions, long limit) {
+        this(tableName, columns, conditions, limit, false);
+    }
+
+    private SelectStatement(String tableName, List<String> columns, List<Condition> conditions, long limit,
+                            boolean count) {
+        this.tableName = tableName;
+        this.count = count;
+        this.columns = Collections.unmodifiableList(new ArrayList<>(columns));
+        this.conditions = Collections.unmodifiableList(new ArrayList<>(conditions));
+        this.limit = limit;
+    }
+
+    /**
+     * @throws IllegalArgumentException if the text is not a SELECT this class understands
+     */
+    public static SelectStatement parse(String sql) {
+        Matcher matcher = SELECT.matcher(sql.trim());
+        if (!matcher.matches()) {
+            throw new IllegalArgumentException("Invalid SELECT syntax");
+        }
+        List<String> columns = new ArrayList<>();
+        boolean count = COUNT.matcher(matcher.group(1).trim()).matches();
+        if (!count && !matcher.group(1).trim().equals("*")) {
+            for (String column : matcher.group(1).split(",")) {
+                if (!column.trim().matches("\\w+")) {
+                    throw new IllegalArgumentException("Invalid column: " + column.trim());
+                }
+                columns.add(column.trim());
+            }
+        }
+        List<Condition> conditions = new ArrayList<>();
+        if (matcher.group(3) != null) {
+            for (String text : AND.split(matcher.group(3).trim())) {
+                Matcher condition = CONDITION.matcher(text.trim());
+                if (!condition.matches()) {
+                    throw new IllegalArgumentException("Invalid condition: " + text.trim());
+                }
+                String value = condition.group(3);
+                if (value.startsWith("'")) {
+                    value = value.substring(1, value.length() - 1).replace("''", "'");
+                }
+                conditions.add(new Condition(condition.group(1),
+                        Condition.Operator.fromSymbol(condition.group(2)), value));
+            }
+        }
+        long limit = matcher.group(4) == null ? -1 : Long.parseLong(matcher.group(4));
+        return new SelectStatement(matcher.group(2), columns, conditions, limit, count);
+    }
+
+    public String getTableName() {
+        return tableName;
+    }
+
+    /**
+     * @return the selected columns, or an empty list for SELECT *
+     */
+    public List<String> getColumns() {
+        return columns;
+    }
+
+    /**
+     * @return whether this is a SELECT COUNT(*)
+     */
+    public boolean isCount() {
+        return count;
+    }
+
+    public List<Condition> getConditions() {
+        return conditions;
+    }
+
+    /**
+     * @return the LIMIT, or -1 if there is none
+     */
+    public long getLimit() {
+        return limit;
+    }
+
+    /**
+     * Builds the operators that run the query on a table, scanning batches of the given size.
+     *
+     * @throws IllegalArgumentException if the query names a column the table does not have, or compares
+     * one with a constant of another type
+     */
+    public BatchOperator plan(Table table, int batchSize) throws IOException {
+        Projection projection;
+        if (columns.isEmpty()) {
+            projection = table.projectAll();
+        } else {
+            Set<String> used = new LinkedHashSet<>(columns);
+            for (Condition condition : conditions) {
+                used.add(condition.getColumn());
+            }
+            projection = table.project(used.toArray(new String[0]));
+        }
+        BatchOperator operator = new ScanOperator(table, projection, Integer.MIN_VALUE, Integer.MAX_VALUE,
+                batchSize);
+        if (!conditions.isEmpty()) {
+            operator = new FilterOperator(operator, conditions, projection.getSchema());
+        }
+        if (limit >= 0) {
+            operator = new LimitOperator(operator, limit);
+        }
+        if (operator.getColumns().length != columns.size() && !columns.isEmpty()) {
+            operator = new ProjectOperator(operator, columns.toArray(new String[0]));
+        }
+        return operator;
+    }
+
+    private String whereClause() {
+        if (conditions.isEmpty()) {
+            return "";
+        }
+        StringBuilder where = new StringBuilder(" WHERE ");
+        for (int i = 0; i < conditions.size(); i++) {
+            where.append(i > 0 ? " AND " : "").append(conditions.get(i));
+        }
+        return where.toString();
+    }
+
+    /**
+     * Counts the rows satisfying the conditions, scanning ranges of the table in parallel.
+     */
+    public long count(Table table) throws IOException {
+        return new ParallelScan(table, table.project(), conditions).count();
+    }
+
+    @Override
+    public String toString() {
+        return "SELECT " + (count ? "COUNT(*)" : columns.isEmpty() ? "*" : String.join(", ", columns)) + " FROM " + tableName +
+                whereClause() + (limit < 0 ? "" : " LIMIT " + limit);
+    }
+}
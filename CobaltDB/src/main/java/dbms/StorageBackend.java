@@ -0,0 +1,40 @@
+package dbms;
+
+import java.io.RandomAccessFile;
+
+/**
+ * Selects the PageStore implementation a table is opened with.
+ * The default can be switched with -Dcobaltdb.storage=mapped for benchmarking.
+ * The buffered backend writes a .wal file next to each table unless -Dcobaltdb.wal=false is given.
+ */
+public enum StorageBackend {
+    BUFFERED,
+    MAPPED;
+
+    public static StorageBackend fromSystemProperty() {
+        String value = System.getProperty("cobaltdb.storage", "buffered");
+        return valueOf(value.trim().toUpperCase());
+    }
+
+    public PageStore open(RandomAccessFile file, int pageSize) {
+        return open(file, pageSize, null);
+    }
+
+    /**
+     * @param wal the log for committed changes; only the buffered backend can hold pages back until they are
+     *            logged, so the mapped backend ignores it
+     */
+    public PageStore open(RandomAccessFile file, int pageSize, WriteAheadLog wal) {
+        switch (this) {
+            case MAPPED:
+                return new MappedPageStore(file, pageSize);
+            case BUFFERED:
+            default:
+                return new BufferPool(file, pageSize, BufferPool.DEFAULT_CAPACITY, wal);
+        }
+    }
+
+    public boolean supportsWriteAheadLog() {
+        return this == BUFFERED;
+    }
+}
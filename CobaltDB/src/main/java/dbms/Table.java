@@ -1,164 +1,612 @@
 package dbms;
 
 import java.io.*;
+import java.nio.ByteBuffer;
 import java.util.*;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.locks.ReentrantReadWriteLock;
 
+/**
+ * A table file: its header page and the B+tree of its records.
+ * Lookups, scans and inserts may run on any number of threads. Inserts share a commit gate that a commit
+ * or flush takes exclusively, so the pages they log or write never hold a half-done insert.
+ * Column indexes, B+tree or hash, are kept in step with every insert and written back whenever the table
+ * is flushed.
+ */
 public class Table {
     private final String tableName;
     private final BPlusTree bPlusTree;
-    private int nextRowId;
+    private final AtomicInteger nextRowId = new AtomicInteger(1);
+    private final ReentrantReadWriteLock commitGate = new ReentrantReadWriteLock();
+    // Rows inserted one by one from a CSV file are committed in groups of this size
+    private static final int CSV_COMMIT_ROWS = 1000;
+
+    private double bulkLoadFillFactor = BPlusTree.DEFAULT_FILL_FACTOR;
+    // With more than one, CSV lines are parsed on this many threads, see CsvPipeline
+    private int ingestThreads = Integer.getInteger("cobaltdb.ingestThreads",
+            Runtime.getRuntime().availableProcessors());
     private final RandomAccessFile file;
+    private final PageStore pageStore;
     private final String columns;
     private final Schema schema;
+    private final StorageBackend backend;
+    // Only changed while the commit gate is held exclusively
+    private final Map<String, ColumnIndex> indexes = new LinkedHashMap<>();
+    private TableHeader header;
+
+    public Table(Schema schema, RandomAccessFile file, String name, String columns) throws IOException {
+        this(schema, file, name, columns, StorageBackend.BUFFERED);
+    }
+
+    public Table(Schema schema, RandomAccessFile file, String name, String columns, StorageBackend backend)
+            throws IOException {
+        this(schema, file, name, columns, backend, Page.DEFAULT_PAGE_SIZE);
+    }
 
-    public Table(Schema schema, RandomAccessFile file, String name, String columns) {
+    public Table(Schema schema, RandomAccessFile file, String name, String columns, StorageBackend backend,
+                 int pageSize) throws IOException {
+        Page.validatePageSize(pageSize);
         this.tableName = name;
         this.file = file;
         this.schema = schema;
         this.columns = columns;
-        System.out.println("Table constructor: Creating BPlusTree with schema: " + this.schema);
-        this.bPlusTree = new BPlusTree(schema, file);
-        this.nextRowId = 0;
+        this.backend = backend;
+        WriteAheadLog wal = null;
+        if (backend.supportsWriteAheadLog() && !"false".equals(System.getProperty("cobaltdb.wal"))) {
+            // Any log left by a crash has been replayed by now, see WriteAheadLog.recover
+            wal = new WriteAheadLog(walFile(name), pageSize);
+        }
+        this.pageStore = backend.open(file, pageSize, wal);
+        this.bPlusTree = new BPlusTree(schema, pageStore);
+    }
+
+    public static String walFile(String tableName) {
+        return tableName + ".wal";
     }
 
+    /**
+     * Truncates the file and writes the header page of a new, empty table.
+     */
     public void initialize() throws IOException {
-        file.setLength(512);
-        System.out.println("Initialized table file with size: " + file.length());
+        file.setLength(0);
+        // Indexes left by an earlier table of the same name describe rows that are gone
+        for (Schema.Metadata field : schema.getFields()) {
+            new File(SecondaryIndex.fileName(tableName, field.getName())).delete();
+            new File(HashIndex.fileName(tableName, field.getName())).delete();
+        }
+        header = new TableHeader(columns, pageStore.getPageSize(), -1, BPlusTree.FIRST_PAGE_NUMBER, 1);
+        nextRowId.set(header.getNextRowId());
+        flush();
+        Log.debug("Initialized table file " + tableName);
     }
 
-    public void processCsv(RandomAccessFile dbFile, String csvFilePath) {
-        System.out.println("Starting to process CSV file: " + csvFilePath);
-        try {
-            // Create a File object to check if the CSV exists
-            File csvFile = new File(csvFilePath);
-            System.out.println("CSV file exists: " + csvFile.exists());
-            System.out.println("CSV file absolute path: " + csvFile.getAbsolutePath());
+    /**
+     * Attaches to an existing table file using its header page; no other page is read up front.
+     */
+    public void open(TableHeader header) throws IOException {
+        this.header = header;
+        this.nextRowId.set(header.getNextRowId());
+        bPlusTree.open(header.getRootPage(), header.getNextPageNumber());
+        for (Schema.Metadata field : schema.getFields()) {
+            String treeFile = SecondaryIndex.fileName(tableName, field.getName());
+            String hashFile = HashIndex.fileName(tableName, field.getName());
+            ColumnIndex index = null;
+            if (new File(treeFile).exists()) {
+                index = SecondaryIndex.open(treeFile, schema, field.getName(), backend, pageStore.getPageSize(),
+                        nextRowId.get());
+            } else if (new File(hashFile).exists()) {
+                index = HashIndex.open(hashFile, schema, field.getName(), backend, pageStore.getPageSize(),
+                        nextRowId.get());
+            }
+            if (index != null) {
+                if (index.isStale()) {
+                    fillIndex(index);
+                }
+                indexes.put(field.getName(), index);
+            }
+        }
+        if (Log.isDebugEnabled()) {
+            Log.debug("Opened table " + tableName + ": " + header + ", indexes " + indexes.keySet());
+        }
+    }
 
-            if (!csvFile.exists()) {
-                throw new FileNotFoundException("CSV file not found: " + csvFilePath);
+    /**
+     * Builds a B+tree index on a column from the rows already in the table, in a file of its own.
+     * From then on every insert also goes into the index.
+     *
+     * @throws IllegalArgumentException if the column does not exist or is already indexed
+     */
+    public void createIndex(String column) throws IOException {
+        createIndex(column, ColumnIndex.Kind.BTREE);
+    }
+
+    /**
+     * Builds an index of the given kind on a column; a HASH index answers only equality lookups, each with
+     * a single page read.
+     *
+     * @throws IllegalArgumentException if the column does not exist or is already indexed
+     */
+    public void createIndex(String column, ColumnIndex.Kind kind) throws IOException {
+        commitGate.writeLock().lock();
+        try {
+            if (indexes.containsKey(column)) {
+                throw new IllegalArgumentException("Column " + column + " is already indexed");
             }
+            int pageSize = pageStore.getPageSize();
+            ColumnIndex index = kind == ColumnIndex.Kind.HASH
+                    ? HashIndex.create(HashIndex.fileName(tableName, column), schema, column, backend, pageSize)
+                    : SecondaryIndex.create(SecondaryIndex.fileName(tableName, column), schema, column, backend,
+                    pageSize);
+            fillIndex(index);
+            indexes.put(column, index);
+        } finally {
+            commitGate.writeLock().unlock();
+        }
+    }
+
+    // Caller keeps inserts out, through the commit gate or by not having opened the table yet
+    private void fillIndex(ColumnIndex index) throws IOException {
+        RecordCursor cursor = bPlusTree.scan(Integer.MIN_VALUE, Integer.MAX_VALUE, project(index.getColumn()));
+        int count = 0;
+        while (cursor.hasNext()) {
+            index.insert(cursor.next());
+            count++;
+        }
+        index.flush(nextRowId.get());
+        Log.info("Indexed " + count + " rows of " + tableName + " on " + index.getColumn());
+    }
 
-            BufferedReader br = new BufferedReader(new FileReader(csvFile));
-            System.out.println("Successfully opened CSV file");
+    public boolean hasIndex(String column) {
+        commitGate.readLock().lock();
+        try {
+            return indexes.containsKey(column);
+        } finally {
+            commitGate.readLock().unlock();
+        }
+    }
 
-            String line = br.readLine(); // skip header
-            System.out.println("Header line: " + line);
+    /**
+     * Finds through the column's index the rows whose value lies between from and to, both included;
+     * a null bound is open. Pass the same value twice for an equality match.
+     *
+     * @return the rowIds in order of value, then rowId
+     * @throws IllegalArgumentException if the column has no index, or only a hash index and the bounds differ
+     */
+    public int[] findRowIds(String column, Object from, Object to) throws IOException {
+        ColumnIndex index;
+        commitGate.readLock().lock();
+        try {
+            index = indexes.get(column);
+        } finally {
+            commitGate.readLock().unlock();
+        }
+        if (index == null) {
+            throw new IllegalArgumentException("Column " + column + " has no index");
+        }
+        return index.find(from, to);
+    }
 
-            line = br.readLine();
-            int recordCount = 0;
+    /**
+     * Like findRowIds, returning the rows themselves with only the projected columns.
+     */
+    public List<Record> getByIndex(String column, Object from, Object to, Projection projection)
+            throws IOException {
+        int[] rowIds = findRowIds(column, from, to);
+        List<Record> records = new ArrayList<>(rowIds.length);
+        for (int rowId : rowIds) {
+            Record record = bPlusTree.search(rowId, projection);
+            if (record != null) {
+                records.add(record);
+            }
+        }
+        return records;
+    }
 
-            while (line != null) {
-                System.out.println("Processing line: " + line);
-                int rId = assignRowId();
-                Record empRecord = parseCSVLine(line, rId);
-                System.out.println("Created record with rowId: " + rId);
-                System.out.println("Parsed Record: " + empRecord);
-                System.out.println("Serialized Record: " + Arrays.toString(empRecord.serialize()));
+    // Caller holds the commit gate
+    private void addToIndexes(Record record) throws IOException {
+        for (ColumnIndex index : indexes.values()) {
+            index.insert(record);
+        }
+    }
 
+    private void flushIndexes() throws IOException {
+        for (ColumnIndex index : indexes.values()) {
+            index.flush(nextRowId.get());
+        }
+    }
 
-                if (bPlusTree.insert(empRecord)) {
-                    System.out.println("Successfully inserted record " + rId);
-                    recordCount++;
-                } else {
-                    System.out.println("Failed to insert record with rowId " + rId);
-                }
+    // Caller holds the commit gate exclusively
+    private void writeHeader() throws IOException {
+        header.setRootPage(bPlusTree.getRootPageNumber());
+        header.setNextPageNumber(bPlusTree.getNextPageNumber());
+        header.setNextRowId(nextRowId.get());
+        pageStore.latch(TableHeader.PAGE_NUMBER, true);
+        try {
+            header.write(pageStore);
+        } finally {
+            pageStore.unlatch(TableHeader.PAGE_NUMBER, true);
+        }
+    }
+
+    public void processCsv(RandomAccessFile dbFile, String csvFilePath) {
+        Log.info("Processing CSV file: " + csvFilePath);
+        try {
+            File csvFile = new File(csvFilePath);
+            if (!csvFile.exists()) {
+                throw new FileNotFoundException("CSV file not found: " + csvFile.getAbsolutePath());
+            }
+
+            InputStream in = new FileInputStream(csvFile);
+            int recordCount = 0;
 
-                line = br.readLine();
-                if (line != null) {
-                    System.out.println("CSV Line Read: " + line); // Debug
+            if (ingestThreads > 1) {
+                recordCount = loadPipelined(in);
+            } else {
+                CsvTokenizer csv = new CsvTokenizer(in);
+                if (csv.next() && Log.isDebugEnabled()) {
+                    Log.debug("Header line: " + csv.getRecord());
                 }
+                recordCount = load(csv);
             }
 
-            System.out.println("Finished processing CSV. Total records processed: " + recordCount);
-            br.close();
+            Log.info("Finished processing CSV. Total records processed: " + recordCount);
+            in.close();
 
-            // Verify file size after processing
-            System.out.println("Final table file size: " + dbFile.length());
+            flush();
+            if (Log.isInfoEnabled()) {
+                Log.info("Page store stats: " + pageStore);
+                Log.info("Final table file size: " + dbFile.length());
+            }
 
         } catch (Exception e) {
-            System.out.println("Error processing CSV: " + e.getMessage());
-            e.printStackTrace();
+            Log.error("Error processing CSV: " + e.getMessage(), e);
             throw new RuntimeException(e);
         }
     }
 
-    private char toChar(String s) {
-        return s.length() == 1 ? s.charAt(0) : '\u0000';
+    // Loads the records after the header on this thread
+    private int load(CsvTokenizer csv) throws IOException {
+        int recordCount = 0;
+        if (bPlusTree.isEmpty()) {
+            // RowIds are assigned in file order, so the input is already sorted for a bulk load
+            Log.info("Table is empty, bulk loading with fill factor " + bulkLoadFillFactor);
+            int firstRowId = nextRowId.get();
+            recordCount = bulkLoadUnlogged(new CsvRecordIterator(csv), firstRowId);
+        } else {
+            while (csv.next()) {
+                insertEncoded(encodeCsvRecord(csv, assignRowId()));
+                recordCount++;
+                if (recordCount % CSV_COMMIT_ROWS == 0) {
+                    commit();
+                }
+            }
+        }
+        return recordCount;
+    }
+
+    // Bulk loads the records into the empty tree with logging off. The loaded pages are only reachable once
+    // the header points at them, so instead of logging them they are forced to the file before the header is
+    // committed. Logging comes back on however the load ends, or every later change would skip the log.
+    // A load that fails part way leaves the tree empty, and the table is put back as it was before it:
+    // nextRowId returns to firstRowId and the indexes drop the entries of the rows that were read.
+    private int bulkLoadUnlogged(Iterator<byte[]> records, int firstRowId) throws IOException {
+        commitGate.writeLock().lock();
+        try {
+            pageStore.setLogging(false);
+            try {
+                return bPlusTree.bulkLoadSerialized(records, bulkLoadFillFactor);
+            } catch (IOException | RuntimeException e) {
+                nextRowId.set(firstRowId);
+                for (ColumnIndex index : indexes.values()) {
+                    index.clear();
+                }
+                throw e;
+            } finally {
+                pageStore.setLogging(true);
+            }
+        } finally {
+            commitGate.writeLock().unlock();
+        }
     }
 
-    private short toShort(String s) {
+    // Loads the records after the header through a CsvPipeline, this thread being its writer
+    private int loadPipelined(InputStream in) throws IOException {
+        Log.info("Parsing CSV on " + ingestThreads + " threads");
+        int recordCount = 0;
+        int firstRowId = nextRowId.get();
+        boolean bulk = bPlusTree.isEmpty();
         try {
-            int value = Integer.parseInt(s);
-            if (value >= Short.MIN_VALUE && value <= Short.MAX_VALUE) {
-                return (short) value;
+            try (CsvPipeline pipeline = new CsvPipeline(in, ingestThreads, this::encodeCsvRecord, this::assignRowIds)) {
+                if (bulk) {
+                    Log.info("Table is empty, bulk loading with fill factor " + bulkLoadFillFactor);
+                    return bulkLoadUnlogged(new Iterator<byte[]>() {
+                        @Override
+                        public boolean hasNext() {
+                            return pipeline.hasNext();
+                        }
+
+                        @Override
+                        public byte[] next() {
+                            byte[] recordData = pipeline.next();
+                            try {
+                                addEncodedToIndexes(recordData);
+                            } catch (IOException e) {
+                                throw new UncheckedIOException(e);
+                            }
+                            return recordData;
+                        }
+                    }, firstRowId);
+                }
+
+                while (pipeline.hasNext()) {
+                    insertEncoded(pipeline.next());
+                    recordCount++;
+                    if (recordCount % CSV_COMMIT_ROWS == 0) {
+                        commit();
+                    }
+                }
+                return recordCount;
+            } catch (UncheckedIOException e) {
+                throw e.getCause();
             }
-        } catch (NumberFormatException ignored) {
-            System.out.println("Warning: Could not parse short value: " + s);
+        } catch (IOException | RuntimeException e) {
+            // The reader takes rowIds ahead of the writer, for chunks that were never loaded. It has stopped
+            // once the pipeline is closed, so only now can an empty table get its rowIds back.
+            if (bulk) {
+                nextRowId.set(firstRowId);
+            }
+            throw e;
         }
-        return 0;
+    }
+
+    /**
+     * Streams the remaining records of a CSV file, serialized with freshly assigned rowIds.
+     */
+    private class CsvRecordIterator implements Iterator<byte[]> {
+        private final CsvTokenizer csv;
+        private boolean hasNext;
+
+        CsvRecordIterator(CsvTokenizer csv) throws IOException {
+            this.csv = csv;
+            this.hasNext = csv.next();
+        }
+
+        @Override
+        public boolean hasNext() {
+            return hasNext;
+        }
+
+        @Override
+        public byte[] next() {
+            if (!hasNext) {
+                throw new NoSuchElementException();
+            }
+            byte[] recordData = encodeCsvRecord(csv, assignRowId());
+            try {
+                addEncodedToIndexes(recordData);
+                hasNext = csv.next();
+            } catch (IOException e) {
+                throw new UncheckedIOException(e);
+            }
+            return recordData;
+        }
+    }
+
+    /**
+     * Sets how many threads parse CSV files; with 1 the lines are parsed by the importing thread.
+     */
+    public void setIngestThreads(int threads) {
+        if (threads < 1) {
+            throw new IllegalArgumentException("Ingest threads must be positive: " + threads);
+        }
+        this.ingestThreads = threads;
+    }
+
+    public void setBulkLoadFillFactor(double fillFactor) {
+        if (fillFactor <= 0 || fillFactor > 1) {
+            throw new IllegalArgumentException("Fill factor must be in (0, 1]: " + fillFactor);
+        }
+        this.bulkLoadFillFactor = fillFactor;
     }
 
     private String removeDash(String s) {
         return s.substring(0, 3) + s.substring(4, 6) + s.substring(7, 11);
     }
 
-    private Record parseCSVLine(String line, int rId) {
+    // Serializes the current CSV record straight from its bytes
+    private byte[] encodeCsvRecord(CsvTokenizer csv, int rowId) {
+        if (csv.getFieldCount() != schema.getFields().size()) {
+            Log.error("Error parsing line: " + csv.getRecord(), null);
+            throw new IllegalArgumentException("Mismatch between schema and CSV attributes count");
+        }
         try {
-            String[] attributes = line.split(",");
-            System.out.println("Parsing line with " + attributes.length + " attributes");
-
-            // Validate the number of attributes matches the schema
-            if (attributes.length != schema.getFields().size()) {
-                throw new IllegalArgumentException("Mismatch between schema and CSV attributes count");
-            }
-
-            // Parse attributes dynamically based on schema
-            Map<String, Object> values = new HashMap<>();
-            List<Schema.Metadata> fields = schema.getFields();
-
-            for (int i = 0; i < fields.size(); i++) {
-                Schema.Metadata field = fields.get(i);
-                String rawValue = attributes[i].trim();
-
-                // Parse based on field type
-                switch (field.getType()) {
-                    case "string":
-                        values.put(field.getName(), rawValue);
-                        break;
-                    case "char":
-                        values.put(field.getName(), toChar(rawValue));
-                        break;
-                    case "int":
-                        values.put(field.getName(), Integer.parseInt(rawValue));
-                        break;
-                    case "short":
-                        values.put(field.getName(), toShort(rawValue));
-                        break;
-                    default:
-                        throw new IllegalArgumentException("Unsupported field type: " + field.getType());
-                }
+            return schema.getCodec().encode(rowId, csv, (byte) 0);
+        } catch (RuntimeException e) {
+            Log.error("Error parsing line: " + csv.getRecord(), e);
+            throw e;
+        }
+    }
+
+    // Inserts a serialized record like insertRecord
+    private void insertEncoded(byte[] recordData) throws IOException {
+        commitGate.readLock().lock();
+        try {
+            if (!bPlusTree.insert(recordData)) {
+                throw new IOException("Failed to insert record");
             }
+            addEncodedToIndexes(recordData);
+        } finally {
+            commitGate.readLock().unlock();
+        }
+    }
 
-            // Create the record using the schema and parsed values
-            return new Record(rId, schema, values);
-        } catch (Exception e) {
-            System.out.println("Error parsing line: " + line);
-            e.printStackTrace();
-            throw e;
+    // Caller holds the commit gate; the record is only decoded if there are indexes
+    private void addEncodedToIndexes(byte[] recordData) throws IOException {
+        if (!indexes.isEmpty()) {
+            addToIndexes(schema.getCodec().decode(ByteBuffer.wrap(recordData), 0));
         }
     }
 
-    private int assignRowId() {
-        return ++nextRowId;
+    public int assignRowId() {
+        return nextRowId.getAndIncrement();
+    }
+
+    // Reserves count consecutive rowIds and returns the first
+    int assignRowIds(int count) {
+        return nextRowId.getAndAdd(count);
     }
 
     public String getSchema() {
         return schema.toString();
     }
 
+    public PageStore getPageStore() {
+        return pageStore;
+    }
+
+    /**
+     * Makes the inserts so far durable. With a write-ahead log this appends one log frame and leaves
+     * the pages themselves to be written back later.
+     */
+    public void commit() throws IOException {
+        long position;
+        commitGate.writeLock().lock();
+        try {
+            writeHeader();
+            position = pageStore.logCommit();
+        } finally {
+            commitGate.writeLock().unlock();
+        }
+        // Inserts go on while the log is forced, and commits that arrive meanwhile share the next force
+        pageStore.awaitCommit(position);
+    }
+
+    /**
+     * Writes every modified page back to the table file (a checkpoint when there is a log).
+     */
+    public void flush() throws IOException {
+        commitGate.writeLock().lock();
+        try {
+            writeHeader();
+            pageStore.flush();
+            flushIndexes();
+        } finally {
+            commitGate.writeLock().unlock();
+        }
+    }
+
+    public void close() throws IOException {
+        commitGate.writeLock().lock();
+        try {
+            writeHeader();
+            pageStore.close();
+            flushIndexes();
+            for (ColumnIndex index : indexes.values()) {
+                index.close();
+            }
+        } finally {
+            commitGate.writeLock().unlock();
+        }
+    }
+
+    /**
+     * @return the record with the given rowId, or null if there is none
+     */
+    public Record get(int rowId) throws IOException {
+        return bPlusTree.search(rowId);
+    }
+
+    /**
+     * Iterates over every record of the table in rowId order, one leaf page at a time.
+     */
+    public RecordCursor scan() throws IOException {
+        return scan(Integer.MIN_VALUE, Integer.MAX_VALUE);
+    }
+
+    /**
+     * Iterates over the records with fromRowId <= rowId <= toRowId in rowId order.
+     */
+    public RecordCursor scan(int fromRowId, int toRowId) throws IOException {
+        return bPlusTree.scan(fromRowId, toRowId);
+    }
+
+    /**
+     * @return a projection of the given columns, to pass to get and scan
+     * @throws IllegalArgumentException if a column is not in the table
+     */
+    public Projection project(String... columns) {
+        return Projection.of(schema, columns);
+    }
+
+    /**
+     * @return the number of levels of the table's B+tree, counting the leaf level
+     */
+    public int getHeight() throws IOException {
+        return bPlusTree.getHeight();
+    }
+
+    /**
+     * @return rowIds cutting the table into about the given number of ranges, see BPlusTree.splitKeys
+     */
+    public int[] splitKeys(int partitions) throws IOException {
+        return bPlusTree.splitKeys(partitions);
+    }
+
+    /**
+     * @return a projection of every column, in schema order
+     */
+    public Projection projectAll() {
+        return Projection.all(schema);
+    }
+
+    /**
+     * @return the record with the given rowId holding only the projected columns, or null if there is none
+     */
+    public Record get(int rowId, Projection projection) throws IOException {
+        return bPlusTree.search(rowId, projection);
+    }
+
+    /**
+     * Iterates over the records with fromRowId <= rowId <= toRowId in rowId order, decoding only
+     * the projected columns.
+     */
+    public RecordCursor scan(int fromRowId, int toRowId, Projection projection) throws IOException {
+        return bPlusTree.scan(fromRowId, toRowId, projection);
+    }
+
     public void insertRecord(Record record) throws IOException {
-        if (!bPlusTree.insert(record)) {
-            throw new IOException("Failed to insert record");
+        commitGate.readLock().lock();
+        try {
+            if (!bPlusTree.insert(record)) {
+                throw new IOException("Failed to insert record");
+            }
+            addToIndexes(record);
+        } finally {
+            commitGate.readLock().unlock();
+        }
+    }
+
+    /**
+     * Starts a batch of inserts whose values are set column by column; see PreparedInsert.
+     */
+    public PreparedInsert prepareInsert() {
+        return new PreparedInsert(this, schema.getCodec());
+    }
+
+    /**
+     * Inserts records serialized by the schema's codec. They are sorted by rowId once, so the tree is
+     * descended once per leaf they land in rather than once per record.
+     */
+    public void insertBatch(List<byte[]> records) throws IOException {
+        records.sort(Comparator.comparingInt(RecordCodec::rowIdOf));
+        commitGate.readLock().lock();
+        try {
+            bPlusTree.insertSorted(records);
+            for (byte[] recordData : records) {
+                addEncodedToIndexes(recordData);
+            }
+        } finally {
+            commitGate.readLock().unlock();
         }
     }
-}
\ No newline at end of file
+}
@@ -0,0 +1,129 @@
+package dbms;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+
+/**
+ * Page 0 of every .tbl file.
+ * Records what is needed to reopen a table without reading the rest of it:
+ * the column definitions, the root page of the B+tree, the next free page number and the next rowId.
+ */
+public class TableHeader {
+    public static final int PAGE_NUMBER = 0;
+    private static final int MAGIC = 0x43424442;  // "CBDB"
+    // Version 2 stores text fields with their length instead of padded to the column length
+    private static final short VERSION = 2;
+
+    // Layout (byte offsets within page 0)
+    private static final int MAGIC_OFFSET = 0;
+    private static final int VERSION_OFFSET = 4;
+    private static final int PAGE_SIZE_OFFSET = 6;
+    private static final int ROOT_PAGE_OFFSET = 10;
+    private static final int NEXT_PAGE_OFFSET = 14;
+    private static final int NEXT_ROW_ID_OFFSET = 18;
+    private static final int COLUMNS_LENGTH_OFFSET = 22;
+    private static final int COLUMNS_OFFSET = 24;
+
+    private final String columns;
+    private final int pageSize;
+    private int rootPage;
+    private int nextPageNumber;
+    private int nextRowId;
+
+    public TableHeader(String columns, int pageSize, int rootPage, int nextPageNumber, int nextRowId) {
+        if (COLUMNS_OFFSET + columns.length() > pageSize) {
+            throw new IllegalArgumentException("Column definitions do not fit in the table header");
+        }
+        this.columns = columns;
+        this.pageSize = pageSize;
+        this.rootPage = rootPage;
+        this.nextPageNumber = nextPageNumber;
+        this.nextRowId = nextRowId;
+    }
+
+    /**
+     * Reads the header of an existing table file.
+     *
+     * @return the header, or null if the file does not exist or is empty
+     * @throws IOException if the file is not a CobaltDB table
+     */
+    public static TableHeader read(String tableFile) throws IOException {
+        File f = new File(tableFile);
+        if (!f.exists() || f.length() == 0) {
+            return null;
+        }
+        try (RandomAccessFile file = new RandomAccessFile(f, "r")) {
+            if (file.length() < COLUMNS_OFFSET || file.readInt() != MAGIC) {
+                throw new IOException(tableFile + " is not a CobaltDB table file");
+            }
+            file.seek(VERSION_OFFSET);
+            short version = file.readShort();
+            if (version != VERSION) {
+                throw new IOException("Unsupported table file version " + version + " in " + tableFile);
+            }
+            int pageSize = file.readInt();
+            int rootPage = file.readInt();
+            int nextPageNumber = file.readInt();
+            int nextRowId = file.readInt();
+            byte[] columns = new byte[file.readUnsignedShort()];
+            file.readFully(columns);
+            return new TableHeader(new String(columns, StandardCharsets.US_ASCII), pageSize, rootPage,
+                    nextPageNumber, nextRowId);
+        }
+    }
+
+    public void write(PageStore pageStore) throws IOException {
+        ByteBuffer buf = pageStore.getPage(PAGE_NUMBER);
+        byte[] columnBytes = columns.getBytes(StandardCharsets.US_ASCII);
+        buf.putInt(MAGIC_OFFSET, MAGIC);
+        buf.putShort(VERSION_OFFSET, VERSION);
+        buf.putInt(PAGE_SIZE_OFFSET, pageSize);
+        buf.putInt(ROOT_PAGE_OFFSET, rootPage);
+        buf.putInt(NEXT_PAGE_OFFSET, nextPageNumber);
+        buf.putInt(NEXT_ROW_ID_OFFSET, nextRowId);
+        buf.putShort(COLUMNS_LENGTH_OFFSET, (short) columnBytes.length);
+        buf.duplicate().position(COLUMNS_OFFSET).put(columnBytes);
+        pageStore.markDirty(PAGE_NUMBER);
+    }
+
+    public String getColumns() {
+        return columns;
+    }
+
+    public int getPageSize() {
+        return pageSize;
+    }
+
+    public int getRootPage() {
+        return rootPage;
+    }
+
+    public void setRootPage(int rootPage) {
+        this.rootPage = rootPage;
+    }
+
+    public int getNextPageNumber() {
+        return nextPageNumber;
+    }
+
+    public void setNextPageNumber(int nextPageNumber) {
+        this.nextPageNumber = nextPageNumber;
+    }
+
+    public int getNextRowId() {
+        return nextRowId;
+    }
+
+    public void setNextRowId(int nextRowId) {
+        this.nextRowId = nextRowId;
+    }
+
+    @Override
+    public String toString() {
+        return "TableHeader{columns='" + columns + "', pageSize=" + pageSize + ", rootPage=" + rootPage +
+                ", nextPageNumber=" + nextPageNumber + ", nextRowId=" + nextRowId + "}";
+    }
+}
@@ -0,0 +1,139 @@
+package dbms;
+
+import java.io.IOException;
+import java.io.PrintWriter;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * CSV import checks. A failed bulk load must leave the table empty and usable, as it was before the import,
+ * and parsing on several threads must read a file exactly as parsing on one does.
+ * Exits with status 1 if any check fails.
+ */
+public class TestCsvImport {
+    private static final String COLUMNS = "id:int,name:string";
+    private static final int ROWS = 3000;
+
+    private static int failures;
+
+    public static void main(String[] args) {
+        try {
+            Path dir = Files.createTempDirectory("cobaltdb-csv");
+            System.out.println("Working in " + dir);
+
+            failedBulkLoadLeavesTableEmpty(dir, 1, ROWS, ROWS);
+            // Early in a file of many chunks, so the reader is still taking rowIds when the load fails
+            failedBulkLoadLeavesTableEmpty(dir, 4, 100 * ROWS, ROWS);
+            threadsAgree(dir, "blank lines before the header", "\n\r\nid,name\n1,a\n\n2,b\n");
+            threadsAgree(dir, "quoted line breaks and no final line feed", "id,name\n1,\"a\nb\"\n2,\"c,d\"");
+        } catch (Exception e) {
+            System.out.println("Error: " + e.getMessage());
+            e.printStackTrace();
+            failures++;
+        }
+        System.out.println(failures == 0 ? "All CSV import checks passed" : failures + " CSV import checks failed");
+        if (failures > 0) {
+            System.exit(1);
+        }
+    }
+
+    private static void failedBulkLoadLeavesTableEmpty(Path dir, int threads, int rows, int badAt)
+            throws IOException {
+        System.out.println("A bulk load with a bad line after row " + badAt + " of " + rows
+                + " leaves the table empty, on " + threads + " threads");
+        Path bad = dir.resolve("bad" + threads + ".csv");
+        Path good = dir.resolve("good" + threads + ".csv");
+        writeRows(bad, rows, badAt);
+        writeRows(good, ROWS, -1);
+
+        FileStorage storage = open(dir.resolve("bulk" + threads + ".tbl"), threads);
+        storage.createIndex("id");
+        try {
+            storage.startCSVProcess(bad.toString());
+            check(false, "the import of a bad line fails");
+        } catch (RuntimeException expected) {
+            // The bad line is reported as the import failing
+        }
+        check(count(storage) == 0, "no rows after the failed import, got " + count(storage));
+        check(storage.getRecord(ROWS - 500) == null, "row " + (ROWS - 500) + " not found");
+        check(storage.getByIndex("id", 42, 42).isEmpty(), "the index holds no rows");
+
+        // The table takes the same rows again, with the rowIds the failed import had taken
+        storage.startCSVProcess(good.toString());
+        check(count(storage) == ROWS, ROWS + " rows after the second import, got " + count(storage));
+        Record record = storage.getRecord(ROWS - 500);
+        check(record != null && record.getValue("id").equals(ROWS - 501),
+                "row " + (ROWS - 500) + " holds id " + (ROWS - 501) + ", got " + record);
+        List<Record> indexed = storage.getByIndex("id", 42, 42);
+        check(indexed.size() == 1 && indexed.get(0).getRowId() == 43, "the index finds id 42 in row 43");
+        storage.close();
+    }
+
+    private static void threadsAgree(Path dir, String what, String csv) throws IOException {
+        System.out.println("One and several parsing threads agree on " + what);
+        Path file = dir.resolve("agree" + what.hashCode() + ".csv");
+        Files.write(file, csv.getBytes(StandardCharsets.US_ASCII));
+        List<String> serial = importRows(dir, file, 1);
+        List<String> parallel = importRows(dir, file, 4);
+        check(!serial.isEmpty(), "rows imported on one thread");
+        check(serial.equals(parallel), "the same rows on one and four threads: " + serial + " and " + parallel);
+    }
+
+    // Imports csv into a new table and returns its rows as rowId:id:name, or the error it failed with
+    private static List<String> importRows(Path dir, Path csv, int threads) {
+        List<String> rows = new ArrayList<>();
+        FileStorage storage = open(dir.resolve("agree" + threads + ".tbl"), threads);
+        try {
+            storage.startCSVProcess(csv.toString());
+            RecordCursor cursor = storage.scan(Integer.MIN_VALUE, Integer.MAX_VALUE);
+            while (cursor.hasNext()) {
+                Record record = cursor.next();
+                rows.add(record.getRowId() + ":" + record.getValue("id") + ":" + record.getValue("name"));
+            }
+        } catch (RuntimeException e) {
+            rows.add("failed: " + e.getMessage());
+        }
+        storage.close();
+        return rows;
+    }
+
+    private static FileStorage open(Path table, int threads) {
+        System.setProperty("cobaltdb.ingestThreads", Integer.toString(threads));
+        return new FileStorage(table.toString(), COLUMNS, StorageBackend.BUFFERED, Page.DEFAULT_PAGE_SIZE);
+    }
+
+    // Writes a header and rows with ids 0 to rows - 1, with a line that is not a row after the first badAt rows
+    private static void writeRows(Path csv, int rows, int badAt) throws IOException {
+        try (PrintWriter out = new PrintWriter(Files.newBufferedWriter(csv))) {
+            out.print("id,name\n");
+            for (int i = 0; i <= rows; i++) {
+                if (i == badAt) {
+                    out.print("oops\n");
+                }
+                if (i < rows) {
+                    out.print(i + ",name" + i + "\n");
+                }
+            }
+        }
+    }
+
+    private static int count(FileStorage storage) {
+        RecordCursor cursor = storage.scan(Integer.MIN_VALUE, Integer.MAX_VALUE);
+        int count = 0;
+        while (cursor.hasNext()) {
+            cursor.next();
+            count++;
+        }
+        return count;
+    }
+
+    private static void check(boolean condition, String what) {
+        if (!condition) {
+            System.out.println("  FAILED: " + what);
+            failures++;
+        }
+    }
+}
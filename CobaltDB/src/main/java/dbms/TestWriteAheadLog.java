@@ -0,0 +1,200 @@
+package dbms;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.Arrays;
+
+/**
+ * Crash recovery checks for the write-ahead log. Each case writes through a BufferPool or a table, then
+ * "crashes" by dropping it without closing or flushing, replays the log as reopening the table would, and
+ * compares the table file with what was committed. Exits with status 1 if any check fails.
+ */
+public class TestWriteAheadLog {
+    private static final int PAGE_SIZE = 512;
+    private static final int PAGES = 10;
+
+    private static int failures;
+
+    public static void main(String[] args) {
+        try {
+            Path dir = Files.createTempDirectory("cobaltdb-wal");
+            System.out.println("Working in " + dir);
+
+            committedSurvivesUncommittedIsLost(dir);
+            tornLastFrameIsRejected(dir);
+            corruptLastFrameIsRejected(dir);
+            staleFrameAfterCheckpointIsRejected(dir);
+            committedRowsSurviveTableCrash(dir);
+        } catch (Exception e) {
+            System.out.println("Error: " + e.getMessage());
+            e.printStackTrace();
+            failures++;
+        }
+        System.out.println(failures == 0 ? "All recovery checks passed" : failures + " recovery checks failed");
+        if (failures > 0) {
+            System.exit(1);
+        }
+    }
+
+    private static void committedSurvivesUncommittedIsLost(Path dir) throws IOException {
+        System.out.println("Committed pages survive a crash, uncommitted ones do not");
+        Crash crash = new Crash(dir, "uncommitted");
+        crash.commit(0, PAGES, 1);
+        crash.write(0, PAGES / 2, 2);  // never committed
+
+        int replayed = crash.recover();
+        check(replayed == 1, "one commit replayed, got " + replayed);
+        checkPages(crash.table, 0, PAGES, 1);
+    }
+
+    private static void tornLastFrameIsRejected(Path dir) throws IOException {
+        System.out.println("A torn last frame is not replayed");
+        Crash crash = new Crash(dir, "torn");
+        crash.commit(0, PAGES, 1);
+        crash.commit(0, PAGES / 2, 2);
+        // The crash hit while the second frame was being written: its last bytes never reached the disk
+        try (RandomAccessFile wal = new RandomAccessFile(crash.wal, "rw")) {
+            wal.setLength(wal.length() - 3);
+        }
+
+        int replayed = crash.recover();
+        check(replayed == 1, "only the complete commit replayed, got " + replayed);
+        checkPages(crash.table, 0, PAGES, 1);
+    }
+
+    private static void corruptLastFrameIsRejected(Path dir) throws IOException {
+        System.out.println("A last frame with a bad checksum is not replayed");
+        Crash crash = new Crash(dir, "corrupt");
+        crash.commit(0, PAGES, 1);
+        crash.commit(0, PAGES / 2, 2);
+        // Full length, but the end of the body is garbage, as when a sector was not written
+        try (RandomAccessFile wal = new RandomAccessFile(crash.wal, "rw")) {
+            wal.seek(wal.length() - 1);
+            int last = wal.read();
+            wal.seek(wal.length() - 1);
+            wal.write(last ^ 0xFF);
+        }
+
+        int replayed = crash.recover();
+        check(replayed == 1, "only the intact commit replayed, got " + replayed);
+        checkPages(crash.table, 0, PAGES, 1);
+    }
+
+    private static void staleFrameAfterCheckpointIsRejected(Path dir) throws IOException {
+        System.out.println("A frame left over from before a checkpoint is not replayed");
+        Crash crash = new Crash(dir, "stale");
+        crash.commit(0, PAGES, 1);
+        byte[] oldFrames = crash.frames();
+        crash.commit(0, PAGES, 2);
+        crash.pool.flush();  // checkpoint: pages hold 2 and the log starts over with a new salt
+        // A frame of the old log, intact but salted for the log before the checkpoint
+        try (RandomAccessFile wal = new RandomAccessFile(crash.wal, "rw")) {
+            wal.seek(wal.length());
+            wal.write(oldFrames);
+        }
+
+        int replayed = crash.recover();
+        check(replayed == 0, "no frame replayed, got " + replayed);
+        checkPages(crash.table, 0, PAGES, 2);
+    }
+
+    private static void committedRowsSurviveTableCrash(Path dir) {
+        System.out.println("Rows of a committed batch survive a crash of the table");
+        String path = dir.resolve("rows.tbl").toString();
+        int rows = 500;
+        FileStorage storage = new FileStorage(path, "id:int,name:string", StorageBackend.BUFFERED,
+                Page.DEFAULT_PAGE_SIZE);
+        PreparedInsert insert = storage.prepareInsert();
+        try {
+            for (int i = 0; i < rows; i++) {
+                insert.setInt(1, i);
+                insert.setString(2, "name" + i);
+                insert.addBatch();
+            }
+            insert.executeBatch();
+        } catch (IOException e) {
+            throw new RuntimeException(e);
+        }
+        check(new File(dir.toFile(), "rows.wal").exists(), "the table keeps a log");
+        // Crash: storage is dropped without close, so committed pages may only be in the log
+
+        FileStorage reopened = new FileStorage(path, null, StorageBackend.BUFFERED, Page.DEFAULT_PAGE_SIZE);
+        int found = 0;
+        RecordCursor cursor = reopened.scan(Integer.MIN_VALUE, Integer.MAX_VALUE);
+        while (cursor.hasNext()) {
+            Record record = cursor.next();
+            Object id = record.getValue("id");
+            check(("name" + id).equals(record.getValue("name")), "row " + id + " reads back as written");
+            found++;
+        }
+        check(found == rows, rows + " rows after reopening, got " + found);
+        reopened.close();
+    }
+
+    private static void checkPages(File table, int from, int to, int expected) throws IOException {
+        try (RandomAccessFile file = new RandomAccessFile(table, "r")) {
+            byte[] page = new byte[PAGE_SIZE];
+            for (int p = from; p < to; p++) {
+                file.seek((long) p * PAGE_SIZE);
+                file.readFully(page);
+                byte[] wanted = new byte[PAGE_SIZE];
+                Arrays.fill(wanted, (byte) expected);
+                check(Arrays.equals(page, wanted), "page " + p + " holds " + expected + " throughout");
+            }
+        }
+    }
+
+    private static void check(boolean condition, String what) {
+        if (!condition) {
+            System.out.println("  FAILED: " + what);
+            failures++;
+        }
+    }
+
+    // A table file written through a logged BufferPool that is never closed
+    private static class Crash {
+        final File table;
+        final File wal;
+        final WriteAheadLog log;
+        final BufferPool pool;
+
+        Crash(Path dir, String name) throws IOException {
+            this.table = dir.resolve(name + ".tbl").toFile();
+            this.wal = dir.resolve(name + ".wal").toFile();
+            this.log = new WriteAheadLog(wal.getPath(), PAGE_SIZE);
+            this.pool = new BufferPool(new RandomAccessFile(table, "rw"), PAGE_SIZE, 4 * PAGES, log);
+        }
+
+        void write(int from, int to, int value) throws IOException {
+            for (int p = from; p < to; p++) {
+                pool.latch(p, true);
+                try {
+                    byte[] page = new byte[PAGE_SIZE];
+                    Arrays.fill(page, (byte) value);
+                    pool.getPage(p).duplicate().put(page);
+                    pool.markDirty(p);
+                } finally {
+                    pool.unlatch(p, true);
+                }
+            }
+        }
+
+        void commit(int from, int to, int value) throws IOException {
+            write(from, to, value);
+            pool.awaitCommit(pool.logCommit());
+        }
+
+        // The frames currently in the log, without its header
+        byte[] frames() throws IOException {
+            byte[] bytes = Files.readAllBytes(wal.toPath());
+            return Arrays.copyOfRange(bytes, bytes.length - (int) log.size(), bytes.length);
+        }
+
+        int recover() throws IOException {
+            return WriteAheadLog.recover(wal.getPath(), table.getPath());
+        }
+    }
+}
@@ -32,6 +32,21 @@ public class TextType {
         return length;
     }
 
+    /**
+     * Gets the type code of a TEXT value holding the given number of characters.
+     * Records store this code to say how long each of their text fields is.
+     */
+    public static int codeFor(int length) {
+        return BASE_CODE + length;
+    }
+
+    /**
+     * @return the number of characters of a text value with the given type code
+     */
+    public static int lengthOf(int code) {
+        return code - BASE_CODE;
+    }
+
     /**
      * Checks if a given type code represents a TEXT type.
      * @param code The type code to check
@@ -0,0 +1,240 @@
+package dbms;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.StandardOpenOption;
+import java.util.Random;
+import java.util.zip.CRC32;
+
+/**
+ * Append-only redo log kept next to a .tbl file (same name, .wal extension).
+ * Each commit appends one frame holding the byte ranges that changed in the pages modified since the
+ * previous commit, so the table pages themselves can be written back lazily. A checkpoint writes the
+ * pages, forces the table file and empties the log; recovery replays whatever frames are left.
+ *
+ * File layout: [int magic][int pageSize][int salt] followed by frames of
+ * [int bodyLength][int salt][int crc32 of body][body], where the body repeats
+ * [int pageNumber][u16 offset][u16 length][bytes]. The salt changes whenever the log is emptied, so
+ * frames left over from before a checkpoint are never mistaken for new ones.
+ *
+ * Positions in the log are handed out as LSNs that keep growing across checkpoints. sync(lsn)
+ * implements group commit: one caller forces the log on behalf of every frame appended so far,
+ * and callers whose frames were covered by that force return without issuing their own.
+ */
+public class WriteAheadLog {
+    private static final int MAGIC = 0x43424c47;  // "CBLG"
+    private static final int HEADER_SIZE = 12;
+    private static final int FRAME_HEADER_SIZE = 12;
+    static final int RANGE_HEADER_SIZE = 8;
+
+    private final File path;
+    private final FileChannel channel;
+    private final int pageSize;
+    private final CRC32 crc = new CRC32();
+    private final ByteBuffer frameHeader = ByteBuffer.allocate(FRAME_HEADER_SIZE);
+    private int salt;
+
+    private long startLsn;      // LSN of the first frame in the file
+    private long appendedLsn;   // end of the last appended frame
+    private long durableLsn;    // end of the last frame known to be on disk
+    private boolean syncing;
+
+    private long frames;
+    private long syncs;
+
+    /**
+     * Creates a new, empty log, discarding any existing file.
+     * Recover an existing log with {@link #recover} before opening the table.
+     */
+    public WriteAheadLog(String walFile, int pageSize) throws IOException {
+        this.path = new File(walFile);
+        this.pageSize = pageSize;
+        this.salt = new Random().nextInt();
+        this.channel = FileChannel.open(path.toPath(), StandardOpenOption.CREATE, StandardOpenOption.READ,
+                StandardOpenOption.WRITE);
+        writeHeader();
+    }
+
+    private void writeHeader() throws IOException {
+        ByteBuffer header = ByteBuffer.allocate(HEADER_SIZE);
+        header.putInt(MAGIC).putInt(pageSize).putInt(salt).flip();
+        channel.truncate(0);
+        channel.write(header, 0);
+        channel.force(false);
+    }
+
+    /**
+     * Appends one commit frame. Nothing is forced to disk; pass the returned LSN to {@link #sync}.
+     *
+     * @param body the encoded page ranges, from position to limit
+     * @return the LSN just past the frame
+     */
+    public synchronized long append(ByteBuffer body) throws IOException {
+        crc.reset();
+        crc.update(body.duplicate());
+        frameHeader.clear();
+        frameHeader.putInt(body.remaining()).putInt(salt).putInt((int) crc.getValue()).flip();
+
+        long position = HEADER_SIZE + (appendedLsn - startLsn);
+        int length = FRAME_HEADER_SIZE + body.remaining();
+        while (frameHeader.hasRemaining()) {
+            position += channel.write(frameHeader, position);
+        }
+        while (body.hasRemaining()) {
+            position += channel.write(body, position);
+        }
+        appendedLsn += length;
+        frames++;
+        return appendedLsn;
+    }
+
+    /**
+     * Blocks until every frame up to lsn is on disk. If another thread is already forcing the log,
+     * waits for it and only forces again if that did not cover lsn.
+     */
+    public void sync(long lsn) throws IOException {
+        long target;
+        synchronized (this) {
+            while (syncing && durableLsn < lsn) {
+                try {
+                    wait();
+                } catch (InterruptedException e) {
+                    Thread.currentThread().interrupt();
+                    throw new IOException("Interrupted while waiting for log sync", e);
+                }
+            }
+            if (durableLsn >= lsn) {
+                return;
+            }
+            syncing = true;
+            target = appendedLsn;
+        }
+
+        boolean forced = false;
+        try {
+            channel.force(false);
+            forced = true;
+        } finally {
+            synchronized (this) {
+                syncing = false;
+                if (forced) {
+                    durableLsn = Math.max(durableLsn, target);
+                    syncs++;
+                }
+                notifyAll();
+            }
+        }
+    }
+
+    /**
+     * Empties the log once every page it covers has been written and forced to the table file.
+     */
+    public synchronized void reset() throws IOException {
+        salt++;
+        writeHeader();
+        startLsn = appendedLsn;
+        durableLsn = appendedLsn;
+    }
+
+    /**
+     * @return bytes of frames currently in the log
+     */
+    public synchronized long size() {
+        return appendedLsn - startLsn;
+    }
+
+    public synchronized long getFrames() {
+        return frames;
+    }
+
+    public synchronized long getSyncs() {
+        return syncs;
+    }
+
+    /**
+     * Closes and deletes the log; call only after a checkpoint.
+     */
+    public void close() throws IOException {
+        channel.close();
+        if (!path.delete()) {
+            Log.warn("Could not delete " + path);
+        }
+    }
+
+    /**
+     * Replays the committed frames of a log left behind by a crash into the table file, forces the
+     * table file and deletes the log. Replay stops at the first torn or stale frame.
+     *
+     * @return the number of frames replayed
+     */
+    public static int recover(String walFile, String tableFile) throws IOException {
+        File wal = new File(walFile);
+        if (!wal.exists()) {
+            return 0;
+        }
+        int replayed = 0;
+        if (new File(tableFile).exists()) {
+            try (RandomAccessFile log = new RandomAccessFile(wal, "r");
+                 RandomAccessFile table = new RandomAccessFile(tableFile, "rw")) {
+                replayed = replay(log, table);
+                table.getFD().sync();
+            }
+        }
+        if (!wal.delete()) {
+            throw new IOException("Could not delete " + walFile + " after recovery");
+        }
+        if (replayed > 0) {
+            Log.info("Recovered " + replayed + " commits from " + walFile);
+        }
+        return replayed;
+    }
+
+    private static int replay(RandomAccessFile log, RandomAccessFile table) throws IOException {
+        long length = log.length();
+        if (length < HEADER_SIZE || log.readInt() != MAGIC) {
+            return 0;
+        }
+        int pageSize = log.readInt();
+        int salt = log.readInt();
+        CRC32 crc = new CRC32();
+        long position = HEADER_SIZE;
+        int replayed = 0;
+
+        while (position + FRAME_HEADER_SIZE <= length) {
+            log.seek(position);
+            int bodyLength = log.readInt();
+            if (log.readInt() != salt || bodyLength <= 0 || position + FRAME_HEADER_SIZE + bodyLength > length) {
+                break;
+            }
+            int checksum = log.readInt();
+            byte[] body = new byte[bodyLength];
+            log.readFully(body);
+            crc.reset();
+            crc.update(body);
+            if ((int) crc.getValue() != checksum) {
+                break;
+            }
+
+            ByteBuffer ranges = ByteBuffer.wrap(body);
+            while (ranges.remaining() >= RANGE_HEADER_SIZE) {
+                int pageNumber = ranges.getInt();
+                int offset = ranges.getShort() & 0xFFFF;
+                int rangeLength = ranges.getShort() & 0xFFFF;
+                table.seek((long) pageNumber * pageSize + offset);
+                table.write(body, ranges.position(), rangeLength);
+                ranges.position(ranges.position() + rangeLength);
+            }
+            position += FRAME_HEADER_SIZE + bodyLength;
+            replayed++;
+        }
+        return replayed;
+    }
+
+    @Override
+    public synchronized String toString() {
+        return "WriteAheadLog{frames=" + frames + ", syncs=" + syncs + ", size=" + size() + "}";
+    }
+}